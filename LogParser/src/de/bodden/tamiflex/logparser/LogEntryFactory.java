@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.logparser;
+
+/**
+ * Creates the objects that a {@link LogParser} returns for the entries of a log.
+ * Factories are called from multiple threads at once, and hence must be thread-safe.
+ */
+public interface LogEntryFactory<E> {
+
+	/**
+	 * Creates the entry for the given fields of a log line. The line number is -1 and the
+	 * count is 0 if the respective field is empty; the metadata is empty if it is missing.
+	 */
+	E create(String kind, String target, String containerMethod, int lineNumber, String metadata, long count);
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.logparser;
+
+/**
+ * A parsed line of a log file, for clients that have no entry type of their own.
+ */
+public class LogLine {
+
+	public static final LogEntryFactory<LogLine> FACTORY = new LogEntryFactory<LogLine>() {
+		public LogLine create(String kind, String target, String containerMethod, int lineNumber, String metadata, long count) {
+			return new LogLine(kind, target, containerMethod, lineNumber, metadata, count);
+		}
+	};
+
+	private final String kind;
+
+	private final String target;
+
+	private final String containerMethod;
+
+	private final int lineNumber;
+
+	private final String metadata;
+
+	private final long count;
+
+	public LogLine(String kind, String target, String containerMethod, int lineNumber, String metadata, long count) {
+		this.kind = kind;
+		this.target = target;
+		this.containerMethod = containerMethod;
+		this.lineNumber = lineNumber;
+		this.metadata = metadata;
+		this.count = count;
+	}
+
+	/**
+	 * Returns the label of the kind of reflective call, e.g. <code>Class.forName</code>.
+	 */
+	public String getKind() {
+		return kind;
+	}
+
+	public String getTarget() {
+		return target;
+	}
+
+	public String getContainerMethod() {
+		return containerMethod;
+	}
+
+	/**
+	 * Returns the line number of the call, or -1 if it is unknown.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	public String getMetadata() {
+		return metadata;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return kind + ";" + target + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + metadata + ";" + (count>0?count:"");
+	}
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.logparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses log files, i.e., files with lines of the form
+ * <pre>
+ * kind;target;containerMethod;lineNumber;metadata;count
+ * </pre>
+ * where the line number and count may be empty, and older logs may lack metadata and count.
+ * Files are decoded as UTF-8, regardless of the platform's default charset, so that logs
+ * can be exchanged between platforms; the Play-Out agent writes text logs in UTF-8.
+ *
+ * Files are split into chunks at line boundaries, which are parsed in parallel by a thread
+ * pool shared by all parsers. Chunks are read with positional reads rather than memory-mapped,
+ * as a mapping keeps the file open until it is garbage collected, which on Windows prevents the
+ * file from being replaced or deleted. Strings are deduplicated across the whole file (see
+ * {@link StringPool}), so parsed logs take little memory even though their entries repeat the
+ * same strings.
+ */
+public class LogParser {
+
+	//files smaller than this are parsed by the calling thread
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * The pool that parses chunks; created on first use. Its threads end when idle,
+	 * so that a parsed log leaves no threads behind.
+	 */
+	private static class Pool {
+
+		static final ExecutorService EXECUTOR;
+
+		static {
+			int processors = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(processors, processors, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TamiFlex log parser");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			EXECUTOR = executor;
+		}
+	}
+
+	/**
+	 * Parses the given log file, returning its entries in the order of the file.
+	 * Empty lines are skipped.
+	 * @throws IOException if the file cannot be read or contains a malformed line
+	 */
+	public static <E> List<E> parse(File f, LogEntryFactory<E> factory) throws IOException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return parse(f, factory, Math.max(MIN_CHUNK_SIZE, (f.length()+processors-1)/processors));
+	}
+
+	/**
+	 * Parses the given log file in chunks of (about) the given size.
+	 */
+	static <E> List<E> parse(File f, final LogEntryFactory<E> factory, long chunkSize) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			final FileChannel channel = fis.getChannel();
+			long size = channel.size();
+
+			List<long[]> chunks = new ArrayList<long[]>();
+			long start = 0;
+			while(start<size) {
+				long end = start+chunkSize>=size ? size : nextLineStart(channel, start+chunkSize, size);
+				chunks.add(new long[]{start, end});
+				start = end;
+			}
+
+			final ConcurrentMap<String,String> strings = new ConcurrentHashMap<String,String>();
+			if(chunks.size()<=1) {
+				List<E> entries = new ArrayList<E>();
+				if(size>0) parseChunk(channel, 0, size, factory, new StringPool(strings), entries);
+				return entries;
+			}
+
+			List<Future<List<E>>> results = new ArrayList<Future<List<E>>>();
+			try {
+				for (final long[] chunk : chunks) {
+					results.add(Pool.EXECUTOR.submit(new Callable<List<E>>() {
+						public List<E> call() throws IOException {
+							List<E> entries = new ArrayList<E>();
+							parseChunk(channel, chunk[0], chunk[1], factory, new StringPool(strings), entries);
+							return entries;
+						}
+					}));
+				}
+				List<E> entries = new ArrayList<E>();
+				for (Future<List<E>> result : results) {
+					entries.addAll(result.get());
+				}
+				return entries;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while parsing "+f);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof IOException) throw (IOException) cause;
+				if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if(cause instanceof Error) throw (Error) cause;
+				throw new RuntimeException(cause);
+			} finally {
+				//do not leave chunks of a failed parse running against a closed file
+				for (Future<List<E>> result : results) {
+					result.cancel(true);
+				}
+			}
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Parses a single line of a log, e.g. one received in online mode.
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+	public static <E> E parseLine(String line, LogEntryFactory<E> factory) {
+		int[] separators = new int[5];
+		int fields = 1;
+		for(int i=line.indexOf(';'); i>=0 && fields<=separators.length; i=line.indexOf(';', i+1)) {
+			separators[fields-1] = i;
+			fields++;
+		}
+		if(fields<3) throw new IllegalArgumentException("malformed log line: "+line);
+		String kind = line.substring(0, separators[0]);
+		String target = line.substring(separators[0]+1, separators[1]);
+		String containerMethod = line.substring(separators[1]+1, fields>3 ? separators[2] : line.length());
+		int lineNumber = -1;
+		String metadata = "";
+		long count = 0;
+		try {
+			if(fields>3) {
+				String s = line.substring(separators[2]+1, fields>4 ? separators[3] : line.length());
+				if(!s.isEmpty()) lineNumber = Integer.parseInt(s);
+			}
+			if(fields>4) {
+				metadata = line.substring(separators[3]+1, fields>5 ? separators[4] : line.length());
+			}
+			if(fields>5) {
+				String s = line.substring(separators[4]+1);
+				if(!s.isEmpty()) count = Long.parseLong(s);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("malformed log line: "+line, e);
+		}
+		return factory.create(kind, target, containerMethod, lineNumber, metadata, count);
+	}
+
+	//returns the position after the first line break at or after pos
+	private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		while(pos<size) {
+			buf.clear();
+			int read = channel.read(buf, pos);
+			if(read<=0) break;
+			for(int i=0; i<read; i++) {
+				if(buf.get(i)=='\n') return pos+i+1;
+			}
+			pos += read;
+		}
+		return size;
+	}
+
+	private static <E> void parseChunk(FileChannel channel, long start, long end, LogEntryFactory<E> factory, StringPool strings, List<E> entries) throws IOException {
+		//the chunk is read window by window; a line that does not fit is carried over
+		byte[] window = new byte[1 << 16];
+		int filled = 0;
+		long pos = start;
+		int[] separators = new int[5];
+		while(true) {
+			ByteBuffer buf = ByteBuffer.wrap(window, filled, (int) Math.min(end-pos, window.length-filled));
+			while(buf.hasRemaining()) {
+				if(channel.read(buf, pos+buf.position()-filled)<0) throw new IOException("file shrank while parsing");
+			}
+			pos += buf.position()-filled;
+			filled = buf.position();
+			boolean atEnd = pos==end;
+
+			int lineStart = 0;
+			for(int i=0; i<filled; i++) {
+				if(window[i]=='\n') {
+					parseLine(window, lineStart, i, separators, factory, strings, entries);
+					lineStart = i+1;
+				}
+			}
+			if(atEnd) {
+				//last line without line break
+				if(lineStart<filled) parseLine(window, lineStart, filled, separators, factory, strings, entries);
+				return;
+			}
+			filled -= lineStart;
+			if(lineStart>0) {
+				System.arraycopy(window, lineStart, window, 0, filled);
+			} else {
+				//the line does not fit into the window
+				byte[] larger = new byte[window.length*2];
+				System.arraycopy(window, 0, larger, 0, filled);
+				window = larger;
+			}
+		}
+	}
+
+	private static <E> void parseLine(byte[] buf, int from, int to, int[] separators, LogEntryFactory<E> factory, StringPool strings, List<E> entries) throws IOException {
+		if(to>from && buf[to-1]=='\r') to--;
+		if(to==from) return;
+
+		int fields = 1;
+		for(int i=from; i<to && fields<=separators.length; i++) {
+			if(buf[i]==';') separators[fields++ - 1] = i;
+		}
+		if(fields<3) throw malformed(buf, from, to);
+
+		String kind = strings.get(buf, from, separators[0]-from);
+		String target = strings.get(buf, separators[0]+1, separators[1]-separators[0]-1);
+		int containerEnd = fields>3 ? separators[2] : to;
+		String containerMethod = strings.get(buf, separators[1]+1, containerEnd-separators[1]-1);
+		int lineNumber = -1;
+		String metadata = "";
+		long count = 0;
+		if(fields>3) {
+			int lineEnd = fields>4 ? separators[3] : to;
+			if(lineEnd>separators[2]+1) lineNumber = (int) parseNumber(buf, separators[2]+1, lineEnd, from, to);
+		}
+		if(fields>4) {
+			int metadataEnd = fields>5 ? separators[4] : to;
+			metadata = strings.get(buf, separators[3]+1, metadataEnd-separators[3]-1);
+		}
+		if(fields>5 && to>separators[4]+1) {
+			count = parseNumber(buf, separators[4]+1, to, from, to);
+		}
+		entries.add(factory.create(kind, target, containerMethod, lineNumber, metadata, count));
+	}
+
+	//parses a decimal number, which may be negative, e.g. the line number -1 of older logs
+	private static long parseNumber(byte[] buf, int from, int to, int lineFrom, int lineTo) throws IOException {
+		boolean negative = buf[from]=='-';
+		int digits = negative ? from+1 : from;
+		if(digits==to) throw malformed(buf, lineFrom, lineTo);
+		if(to-digits>18) {
+			//might overflow; rare enough to take the slow path
+			try {
+				return Long.parseLong(new String(buf, from, to-from, "US-ASCII"));
+			} catch (NumberFormatException e) {
+				throw malformed(buf, lineFrom, lineTo);
+			}
+		}
+		long value = 0;
+		for(int i=digits; i<to; i++) {
+			int digit = buf[i]-'0';
+			if(digit<0 || digit>9) throw malformed(buf, lineFrom, lineTo);
+			value = value*10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	private static IOException malformed(byte[] buf, int from, int to) {
+		return new IOException("malformed log line: "+new String(buf, from, to-from));
+	}
+
+	private LogParser() {
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.logparser;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Deduplicates the strings of a log while it is being parsed. Log entries repeat the same
+ * kinds, containers, targets and metadata many times, so each string is only decoded the
+ * first time that a parser thread sees its bytes; after that, the bytes are looked up in a
+ * per-thread table without allocating. Strings decoded by different threads are canonicalized
+ * through a shared map, so that equal strings are the same object across the whole log.
+ */
+class StringPool {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ConcurrentMap<String,String> shared;
+
+	private byte[][] keys = new byte[256][];
+
+	private String[] values = new String[256];
+
+	private int size;
+
+	StringPool(ConcurrentMap<String,String> shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Returns the string that the given UTF-8 bytes encode.
+	 */
+	String get(byte[] buf, int off, int len) {
+		int mask = keys.length-1;
+		int slot = hash(buf, off, len) & mask;
+		byte[] key;
+		while((key=keys[slot])!=null) {
+			if(equals(key, buf, off, len)) return values[slot];
+			slot = (slot+1) & mask;
+		}
+
+		String s = new String(buf, off, len, UTF8);
+		String canonical = shared.putIfAbsent(s, s);
+		if(canonical!=null) s = canonical;
+
+		key = new byte[len];
+		System.arraycopy(buf, off, key, 0, len);
+		keys[slot] = key;
+		values[slot] = s;
+		if(++size > keys.length/2) grow();
+		return s;
+	}
+
+	private static int hash(byte[] buf, int off, int len) {
+		int hash = 1;
+		for(int i=off; i<off+len; i++) {
+			hash = 31*hash + buf[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(byte[] key, byte[] buf, int off, int len) {
+		if(key.length!=len) return false;
+		for(int i=0; i<len; i++) {
+			if(key[i]!=buf[off+i]) return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		byte[][] oldKeys = keys;
+		String[] oldValues = values;
+		keys = new byte[oldKeys.length*2][];
+		values = new String[oldKeys.length*2];
+		int mask = keys.length-1;
+		for(int i=0; i<oldKeys.length; i++) {
+			byte[] key = oldKeys[i];
+			if(key==null) continue;
+			int slot = hash(key, 0, key.length) & mask;
+			while(keys[slot]!=null) {
+				slot = (slot+1) & mask;
+			}
+			keys[slot] = key;
+			values[slot] = oldValues[i];
+		}
+	}
+}
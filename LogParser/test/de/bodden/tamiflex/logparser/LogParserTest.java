@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogParserTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void parsesAllColumns() throws IOException {
+		List<LogLine> lines = parse("Method.invoke;<a.A: void run()>;a.A.main;14;isAccessible=true;3\n", 1 << 20);
+		assertEquals(1, lines.size());
+		LogLine line = lines.get(0);
+		assertEquals("Method.invoke", line.getKind());
+		assertEquals("<a.A: void run()>", line.getTarget());
+		assertEquals("a.A.main", line.getContainerMethod());
+		assertEquals(14, line.getLineNumber());
+		assertEquals("isAccessible=true", line.getMetadata());
+		assertEquals(3, line.getCount());
+	}
+
+	@Test
+	public void parsesShortAndOddLines() throws IOException {
+		String log = "Class.forName;a.A;a.A.main\n" +
+				"Class.forName;a.A;a.A.main;3\n" +
+				"Class.forName;a.A;a.A.main;-1;\n" +
+				"\n" +
+				"Class.forName;a.A;a.A.main;;;" + Long.MAX_VALUE + "\r\n" +
+				"\r\n" +
+				"Class.forName;\u00e4.\u20ac;a.A.main;;;1";
+		assertEquals(Arrays.asList(
+				"Class.forName;a.A;a.A.main;;;",
+				"Class.forName;a.A;a.A.main;3;;",
+				"Class.forName;a.A;a.A.main;;;",
+				"Class.forName;a.A;a.A.main;;;" + Long.MAX_VALUE,
+				"Class.forName;\u00e4.\u20ac;a.A.main;;;1"),
+				strings(parse(log, 1 << 20)));
+	}
+
+	@Test
+	public void chunkBoundariesDoNotSplitOrDuplicateLines() throws IOException {
+		StringBuilder log = new StringBuilder();
+		List<String> expected = new ArrayList<String>();
+		for(int i=0; i<500; i++) {
+			//vary the lengths, so that chunks end at all positions within lines
+			StringBuilder target = new StringBuilder("a.A");
+			for(int j=0; j<i%37; j++) target.append('x');
+			String line = "Class.forName;" + target + ";b.B.m" + (i%5) + ";" + i + ";;" + (i+1);
+			expected.add(line);
+			log.append(line).append(i%3==0 ? "\r\n" : "\n");
+		}
+		for(long chunkSize: new long[] { 1, 7, 64, 100, 1000, log.length()-1, log.length(), log.length()+1 }) {
+			assertEquals("chunk size "+chunkSize, expected, strings(parse(log.toString(), chunkSize)));
+		}
+	}
+
+	@Test
+	public void parsesLinesLongerThanTheReadWindow() throws IOException {
+		StringBuilder target = new StringBuilder("a.");
+		for(int i=0; i<200000; i++) target.append('A');
+		String first = "Class.forName;" + target + ";a.A.main;1;;1";
+		String second = "Class.forName;a.A;a.A.main;2;;1";
+		assertEquals(Arrays.asList(first, second), strings(parse(first + "\n" + second, 1 << 20)));
+		assertEquals(Arrays.asList(first, second), strings(parse(first + "\n" + second + "\n", 1000)));
+	}
+
+	@Test
+	public void deduplicatesStringsAcrossChunks() throws IOException {
+		StringBuilder log = new StringBuilder();
+		for(int i=0; i<100; i++) {
+			log.append("Class.forName;a.A;a.A.main;").append(i).append(";;\n");
+		}
+		List<LogLine> lines = parse(log.toString(), 50);
+		for (LogLine line : lines) {
+			assertSame(lines.get(0).getTarget(), line.getTarget());
+		}
+	}
+
+	@Test
+	public void rejectsMalformedLines() throws IOException {
+		for(String line: new String[] { "Class.forName", "Class.forName;a.A;a.A.main;x;;", "Class.forName;a.A;a.A.main;;;-", "Class.forName;a.A;a.A.main;1;;99999999999999999999" }) {
+			try {
+				parse("Class.forName;a.A;a.A.main;1;;\n" + line + "\n", 10);
+				fail("accepted "+line);
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains(line));
+			}
+		}
+	}
+
+	@Test
+	public void parsedFileCanBeDeleted() throws IOException {
+		File f = write("Class.forName;a.A;a.A.main;1;;\nClass.forName;b.B;a.A.main;2;;\n");
+		LogParser.parse(f, LogLine.FACTORY, 10);
+		assertTrue(f.delete());
+	}
+
+	@Test
+	public void emptyFile() throws IOException {
+		assertEquals(0, parse("", 1 << 20).size());
+	}
+
+	private List<LogLine> parse(String log, long chunkSize) throws IOException {
+		return LogParser.parse(write(log), LogLine.FACTORY, chunkSize);
+	}
+
+	private File write(String log) throws IOException {
+		File f = folder.newFile();
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			fos.write(log.getBytes("UTF-8"));
+		} finally {
+			fos.close();
+		}
+		return f;
+	}
+
+	private static List<String> strings(List<LogLine> lines) {
+		List<String> strings = new ArrayList<String>();
+		for (LogLine line : lines) {
+			strings.add(line.toString());
+		}
+		return strings;
+	}
+}
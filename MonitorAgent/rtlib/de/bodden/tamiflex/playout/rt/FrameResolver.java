@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the stack trace elements returned by {@link de.bodden.tamiflex.rt.StackFrames}
+ * to {@link Frame}s, which are cached.
+ */
+public class FrameResolver {
+
+	/**
+	 * Class name, method name and line number of a single stack frame.
+	 * Instances returned by {@link FrameResolver#frameFor(StackTraceElement)} are
+	 * cached, so that the container-method name is only built once per frame.
+	 */
+	public static class Frame {
+
+		private final String className;
+
+		private final String methodName;
+
+		private final int lineNumber;
+
+		private final String containerMethod;
+
+		protected Frame(String className, String methodName, int lineNumber) {
+			this.className = className;
+			this.methodName = methodName;
+			this.lineNumber = lineNumber;
+			this.containerMethod = className+"."+methodName;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		/** Returns the fully-qualified name of the frame's method, in the format <code>Class.Name.methodName</code>. */
+		public String getContainerMethod() {
+			return containerMethod;
+		}
+	}
+
+	/** Upper bound on the number of cached frames, so that the cache cannot grow without bounds. */
+	private static final int MAX_CACHED_FRAMES = 1 << 16;
+
+	private static final ConcurrentMap<StackTraceElement,Frame> frameCache = new ConcurrentHashMap<StackTraceElement,Frame>(1024, 0.75f, 64);
+
+	/**
+	 * Returns the (usually cached) frame for the given stack trace element.
+	 */
+	public static Frame frameFor(StackTraceElement element) {
+		Frame frame = frameCache.get(element);
+		if(frame==null) {
+			frame = new Frame(element.getClassName(), element.getMethodName(), element.getLineNumber());
+			if(frameCache.size()<MAX_CACHED_FRAMES) {
+				Frame other = frameCache.putIfAbsent(element, frame);
+				if(other!=null) frame = other;
+			}
+		}
+		return frame;
+	}
+}
@@ -26,6 +26,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -35,15 +36,27 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import de.bodden.tamiflex.playout.rt.FrameResolver.Frame;
+import de.bodden.tamiflex.rt.StackFrames;
+
 
 public class ReflLogger {
 	
+	//frames skipped at the top of the stack when looking for the caller of the reflection API
+	private static final Set<String> SKIPPED_CLASS_NAMES = new HashSet<String>(Arrays.asList(
+			ReflLogger.class.getName(), Class.class.getName(), Method.class.getName(), Constructor.class.getName()));
+	
 	//holds hashed names
 	protected static Map<PersistedLogEntry,PersistedLogEntry> oldContainerMethodToEntries = new HashMap<PersistedLogEntry,PersistedLogEntry>();
 
 	//holds actual names
 	protected static Map<String,Map<RuntimeLogEntry,RuntimeLogEntry>> containerMethodToEntries = new HashMap<String, Map<RuntimeLogEntry,RuntimeLogEntry>>();
 	
+	static {
+		//set up stack access now, i.e., while the agent is being initialized
+		StackFrames.initialize();
+	}
+
 	//is initialized by the agent
 	private static File logFile;
 	
@@ -161,21 +174,21 @@ public class ReflLogger {
 	}
 
 	public static void classNewInstance(Class<?> c) {
-		StackTraceElement frame = getInvokingFrame();
-		logAndIncrementTargetClassEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassNewInstance,c.getName());
+		Frame frame = getInvokingFrame();
+		logAndIncrementTargetClassEntry(frame.getContainerMethod(),frame.getLineNumber(),Kind.ClassNewInstance,c.getName());
 	}
 
 	public static void classForName(String typeName) {
-		StackTraceElement frame = getInvokingFrame();
-		logAndIncrementTargetClassEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassForName,handleArrayTypes(typeName));
+		Frame frame = getInvokingFrame();
+		logAndIncrementTargetClassEntry(frame.getContainerMethod(),frame.getLineNumber(),Kind.ClassForName,handleArrayTypes(typeName));
 	}
 
 	public static void constructorNewInstance(Constructor<?> c) {		
-		StackTraceElement frame = getInvokingFrame();
+		Frame frame = getInvokingFrame();
 		
 		String[] paramTypes = classesToTypeNames(c.getParameterTypes());
 		
-		logAndIncrementTargetMethodEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ConstructorNewInstance,c.getDeclaringClass().getName(),"void","<init>",paramTypes);
+		logAndIncrementTargetMethodEntry(frame.getContainerMethod(),frame.getLineNumber(),Kind.ConstructorNewInstance,c.getDeclaringClass().getName(),"void","<init>",paramTypes);
 	}
 
 	private static String[] classesToTypeNames(Class<?>[] params) {
@@ -206,9 +219,9 @@ public class ReflLogger {
 				error.printStackTrace();
 			}
 			
-			StackTraceElement frame = getInvokingFrame();
+			Frame frame = getInvokingFrame();
 			String[] paramTypes = classesToTypeNames(resolved.getParameterTypes());
-			logAndIncrementTargetMethodEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.MethodInvoke,resolved.getDeclaringClass().getName(),getTypeName(resolved.getReturnType()),resolved.getName(),paramTypes);
+			logAndIncrementTargetMethodEntry(frame.getContainerMethod(),frame.getLineNumber(),Kind.MethodInvoke,resolved.getDeclaringClass().getName(),getTypeName(resolved.getReturnType()),resolved.getName(),paramTypes);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -280,21 +293,10 @@ public class ReflLogger {
 		return type.getName();
 	}
 
-	private static StackTraceElement getInvokingFrame() {
-		StackTraceElement[] stackTrace = new Exception().getStackTrace();
-		StackTraceElement outerFrame = null;
-		for (StackTraceElement frame : stackTrace) {
-			String c = frame.getClassName();
-			if(!c.equals(ReflLogger.class.getName())
-			&& !c.equals(Class.class.getName())
-			&& !c.equals(Method.class.getName())
-			&& !c.equals(Constructor.class.getName())) {
-			
-				outerFrame = frame;
-				break;
-			}
-		}
-		return outerFrame;
+	private static Frame getInvokingFrame() {
+		//only the caller's frame is materialized
+		StackTraceElement frame = new StackFrames(SKIPPED_CLASS_NAMES, 1).element(0);
+		return frame==null ? null : FrameResolver.frameFor(frame);
 	}
 	
 	public static synchronized void writeLogfileToDisk(boolean verbose) {
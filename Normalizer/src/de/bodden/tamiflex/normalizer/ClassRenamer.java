@@ -85,7 +85,8 @@ public class ClassRenamer {
 				return mv;
     		}
     	};
-    	creader.accept(visitor, 0);
+    	//the remapping adapters renumber locals, which requires expanded stack map frames
+    	creader.accept(visitor, ClassReader.EXPAND_FRAMES);
         return writer.toByteArray();
 	}
 }
@@ -10,8 +10,17 @@
  ******************************************************************************/
 package de.bodden.tamiflex.normalizer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
@@ -23,9 +32,8 @@ import de.bodden.tamiflex.normalizer.ClassRenamer.NoHashedNameException;
 
 public class Hasher {
 	
-	protected final static Map<String,String> generatedClassNameToHashedClassName = new HashMap<String, String>();	
-
-	protected final static Map<String,byte[]> hashedClassNameToOriginalBytes = new HashMap<String, byte[]>();	
+	//concurrent, as classes are hashed in parallel by generateHashNumbers
+	protected final static Map<String,String> generatedClassNameToHashedClassName = new ConcurrentHashMap<String, String>();	
 
 	/**
 	 * Classes containing these strings are blacklisted, i.e. calls to these classes will not be written to the log.
@@ -33,7 +41,7 @@ public class Hasher {
 	 * This is because the classes are "unstable". They are generated and therefore can change from one run to another.
 	 * In particular, the numbered suffixed of the names of these classes can easily change.
 	 */
-	protected static String[] instableNames = {
+	private static final String[] GENERATED_NAMES = {
 		"GeneratedConstructorAccessor",
 		"GeneratedMethodAccessor",
 		"GeneratedSerializationConstructorAccessor",
@@ -43,11 +51,147 @@ public class Hasher {
 		"schemaorg_apache_xmlbeans/system/" these names seem to be stable, as they are already hashed */
 	};
 	
+	protected static String[] instableNames = GENERATED_NAMES;
+	
 	public static void dontNormalize() {
 		instableNames = new String[0];
 	}
 	
+	/**
+	 * Undoes {@link #dontNormalize()}.
+	 */
+	public static void normalize() {
+		instableNames = GENERATED_NAMES;
+	}
+	
+	/**
+	 * Notified when each class is hashed by {@link Hasher#generateHashNumbers}, on the thread hashing it.
+	 */
+	public interface HashingListener {
+		
+		/**
+		 * Called before the given class is hashed; the result is passed to {@link #endHashing}. 
+		 */
+		Object beginHashing(String className);
+		
+		void endHashing(Object token, String className, String hashedName);
+	}
+	
+	/**
+	 * Computes the hashed names of all the given generated classes, which map class names to their
+	 * bytes. The hash of a class depends on the hashed names of the generated classes it references,
+	 * so each class is hashed once these are hashed; classes that do not depend on each other are
+	 * hashed in parallel on all cores. Classes that are part of a cycle of references, or depend on
+	 * such classes, are hashed last and in the given order, like {@link #generateHashNumber} would,
+	 * which throws a {@link NoHashedNameException} for them.
+	 * @param listener Notified of each class hashed in parallel; may be <code>null</code>.
+	 */
+	public static void generateHashNumbers(final Map<String,byte[]> classes, final HashingListener listener) throws NoHashedNameException {
+		//class -> number of the given classes it references that are not hashed yet
+		final Map<String,AtomicInteger> unhashedReferences = new HashMap<String, AtomicInteger>();
+		//class -> the given classes that reference it
+		final Map<String,List<String>> referencingClasses = new HashMap<String, List<String>>();
+		List<String> ready = new ArrayList<String>();
+		for(Map.Entry<String,byte[]> entry: classes.entrySet()) {
+			String className = entry.getKey();
+			int unhashed = 0;
+			for(String referenced: ReferencedGeneratedClasses.namesOfGeneratedClassesReferenced(entry.getValue())) {
+				if(!classes.containsKey(referenced) || generatedClassNameToHashedClassName.containsKey(referenced)) continue;
+				unhashed++;
+				List<String> referencing = referencingClasses.get(referenced);
+				if(referencing==null) {
+					referencing = new ArrayList<String>();
+					referencingClasses.put(referenced, referencing);
+				}
+				referencing.add(className);
+			}
+			unhashedReferences.put(className, new AtomicInteger(unhashed));
+			if(unhashed==0) ready.add(className);
+		}
+		
+		//classes that will become ready; the others are on or behind a cycle
+		int schedulable = countSchedulable(ready, unhashedReferences, referencingClasses);
+		if(schedulable>0) {
+			final CountDownLatch done = new CountDownLatch(schedulable);
+			final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+			//not shared, as the agent calls this only once, when it shuts down
+			final ExecutorService hashers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TamiFlex class hasher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			class HashTask implements Runnable {
+				private final String className;
+				HashTask(String className) {
+					this.className = className;
+				}
+				@Override
+				public void run() {
+					try {
+						Object token = listener!=null ? listener.beginHashing(className) : null;
+						hash(className, classes.get(className));
+						if(listener!=null) listener.endHashing(token, className, generatedClassNameToHashedClassName.get(className));
+					} catch (RuntimeException e) {
+						//the classes referencing this one will fail as well, but are still scheduled
+						failure.compareAndSet(null, e);
+					}
+					List<String> referencing = referencingClasses.get(className);
+					if(referencing!=null) {
+						for(String r: referencing) {
+							if(unhashedReferences.get(r).decrementAndGet()==0) hashers.execute(new HashTask(r));
+						}
+					}
+					done.countDown();
+				}
+			}
+			for(String className: ready) hashers.execute(new HashTask(className));
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while hashing generated classes", e);
+			} finally {
+				hashers.shutdownNow();
+			}
+			if(failure.get()!=null) throw failure.get();
+		}
+		
+		for(Map.Entry<String,byte[]> entry: classes.entrySet()) {
+			if(unhashedReferences.get(entry.getKey()).get()>0) generateHashNumber(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the number of classes that become ready to be hashed, starting from the given ready
+	 * classes, i.e., the classes not on or behind a cycle of references.
+	 */
+	private static int countSchedulable(List<String> ready, Map<String,AtomicInteger> unhashedReferences, Map<String,List<String>> referencingClasses) {
+		Map<String,Integer> remaining = new HashMap<String, Integer>();
+		List<String> worklist = new ArrayList<String>(ready);
+		int count = 0;
+		while(!worklist.isEmpty()) {
+			String className = worklist.remove(worklist.size()-1);
+			count++;
+			List<String> referencing = referencingClasses.get(className);
+			if(referencing==null) continue;
+			for(String r: referencing) {
+				Integer left = remaining.get(r);
+				if(left==null) left = unhashedReferences.get(r).get();
+				remaining.put(r, --left);
+				if(left==0) worklist.add(r);
+			}
+		}
+		return count;
+	}
+	
 	public synchronized static void generateHashNumber(final String theClassName, byte[] classBytes) throws NoHashedNameException {
+		hash(theClassName, classBytes);
+	}
+	
+	private static void hash(final String theClassName, byte[] classBytes) throws NoHashedNameException {
 		boolean usingAssertions = false; assert usingAssertions = true;		
 		
 		//if we don't use assertions then simply return if the hash code was alread computed
@@ -96,7 +240,8 @@ public class Hasher {
 				return mv;
     		}
     	};
-    	creader.accept(visitor, 0);
+    	//the remapping adapters renumber locals, which requires expanded stack map frames
+    	creader.accept(visitor, ClassReader.EXPAND_FRAMES);
         byte[] renamed = writer.toByteArray();
 		////////
 		String hash = SHAHash.SHA1(renamed);
@@ -117,8 +262,15 @@ public class Hasher {
 	public static boolean containsGeneratedClassName(String className) {
 		assert !className.contains(".") : "Class name must contain slashes, not dots: "+className; 
 		for(String name: instableNames) {
-			if(className.contains(name))
-				return true;
+			int index = className.indexOf(name);
+			if(index<0) continue;
+			//proxies are numbered; this excludes e.g. java/lang/reflect/Proxy$ProxyClassFactory
+			if(name.equals("$Proxy")) {
+				int end = index+name.length();
+				if(end==className.length() || !Character.isDigit(className.charAt(end)))
+					continue;
+			}
+			return true;
 		}
 		return false;
 	}
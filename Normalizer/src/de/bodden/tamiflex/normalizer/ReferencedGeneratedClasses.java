@@ -45,11 +45,12 @@ public class ReferencedGeneratedClasses {
 	/**
 	 * Returnes the slashed class names of all referenced generated classes, except for the declaring class itself.
 	 */
-	private static Set<String> namesOfGeneratedClassesReferenced(byte[] classBytes) {
+	static Set<String> namesOfGeneratedClassesReferenced(byte[] classBytes) {
 		final Set<String> res = new HashSet<String>();
 		ClassReader creader = new ClassReader(classBytes);
 		ReferencedClassesExtracter visitor = new ReferencedClassesExtracter(new EmptyVisitor(), res);
-        creader.accept(visitor, 0);
+        //the remapping adapters renumber locals, which requires expanded stack map frames
+        creader.accept(visitor, ClassReader.EXPAND_FRAMES);
         
         //remove name of the declaring class
         res.remove(visitor.getClassName());
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.rt;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The topmost frames of the stack on which an instance was created; shared by the runtimes of
+ * all agents. Frames of given classes at the top of the stack are skipped, and only as many
+ * frames as requested are kept, so that the rest of the stack is never materialized.
+ * <ul>
+ * <li>On Java 9 and later, the stack is walked with <code>java.lang.StackWalker</code>, which
+ * stops after the requested frames.</li>
+ * <li>On Java 7 and 8, the VM's <code>sun.misc.JavaLangAccess</code> creates stack trace
+ * elements for the requested frames only.</li>
+ * <li>On other VMs, the entire stack trace is materialized through
+ * {@link Throwable#getStackTrace()}.</li>
+ * </ul>
+ * Both APIs are looked up reflectively, so that the agents compile on Java 8 without
+ * depending on proprietary API.
+ */
+public class StackFrames {
+
+	//Java 9 and later; null if not available
+	private static final Object stackWalker;
+
+	private static final Method walk, getClassName, toStackTraceElement;
+
+	//Java 7 and 8; null if not available
+	private static final Object javaLangAccess;
+
+	private static final Method getStackTraceElement, getStackTraceDepth;
+
+	static {
+		Object walker = null;
+		Method walkMethod = null, className = null, element = null;
+		try {
+			Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+			Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+			Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+			//show Method.invoke and the like, as Throwable.getStackTrace() does
+			Object showReflectFrames = optionClass.getField("SHOW_REFLECT_FRAMES").get(null);
+			walkMethod = walkerClass.getMethod("walk", Class.forName("java.util.function.Function"));
+			className = frameClass.getMethod("getClassName");
+			element = frameClass.getMethod("toStackTraceElement");
+			walker = walkerClass.getMethod("getInstance", optionClass).invoke(null, showReflectFrames);
+		} catch (Throwable t) {
+			//not available on this VM
+			walker = null;
+		}
+		stackWalker = walker;
+		walk = walkMethod;
+		getClassName = className;
+		toStackTraceElement = element;
+
+		Object access = null;
+		Method elementMethod = null, depth = null;
+		if(stackWalker==null) {
+			try {
+				Class<?> accessClass = Class.forName("sun.misc.JavaLangAccess");
+				elementMethod = accessClass.getMethod("getStackTraceElement", Throwable.class, int.class);
+				depth = accessClass.getMethod("getStackTraceDepth", Throwable.class);
+				access = Class.forName("sun.misc.SharedSecrets").getMethod("getJavaLangAccess").invoke(null);
+			} catch (Throwable t) {
+				//not available on this VM; we will materialize entire stack traces instead
+				access = null;
+			}
+		}
+		javaLangAccess = access;
+		getStackTraceElement = elementMethod;
+		getStackTraceDepth = depth;
+	}
+
+	/**
+	 * Does nothing but trigger the initialization of this class, so that the VM's
+	 * stack access is resolved before any reflective calls are being traced.
+	 */
+	public static void initialize() {
+	}
+
+	private final Set<String> skippedClassNames;
+
+	private final int maxFrames;
+
+	private final boolean countFrames;
+
+	private final List<StackTraceElement> elements;
+
+	private int depth;
+
+	//0: above the frames of this class, 1: in them, 2: in the skipped frames, 3: below them
+	private int phase;
+
+	/**
+	 * Records the frames of the current stack, starting with the caller of this constructor,
+	 * but skipping the frames at the top of the stack that belong to one of the given classes.
+	 * At most <code>maxFrames</code> frames are kept.
+	 */
+	public StackFrames(Set<String> skippedClassNames, int maxFrames) {
+		this(skippedClassNames, maxFrames, false);
+	}
+
+	/**
+	 * Like {@link #StackFrames(Set, int)}, but if <code>countFrames</code> is <code>true</code>,
+	 * also counts all frames below the skipped ones, see {@link #depth()}. Counting walks the
+	 * entire stack, although without materializing it.
+	 */
+	public StackFrames(Set<String> skippedClassNames, int maxFrames, boolean countFrames) {
+		this.skippedClassNames = skippedClassNames;
+		this.maxFrames = maxFrames;
+		this.countFrames = countFrames;
+		this.elements = new ArrayList<StackTraceElement>(Math.min(maxFrames, 16));
+		if(stackWalker!=null) {
+			walkStack();
+			return;
+		}
+		Throwable trace = new Throwable();
+		if(javaLangAccess!=null) {
+			try {
+				readLazily(trace);
+				return;
+			} catch (Exception e) {
+				//should not happen; fall back to the full stack trace
+				elements.clear();
+				depth = 0;
+				phase = 0;
+			}
+		}
+		for(StackTraceElement element: trace.getStackTrace()) {
+			if(isComplete()) break;
+			if(phase<3 && !isBelowSkippedFrames(element.getClassName())) continue;
+			depth++;
+			if(elements.size()<maxFrames) elements.add(element);
+		}
+	}
+
+	private void walkStack() {
+		try {
+			walk.invoke(stackWalker, new java.util.function.Function<Object,Object>() {
+				public Object apply(Object frames) {
+					try {
+						Iterator<?> i = ((java.util.stream.Stream<?>) frames).iterator();
+						while(i.hasNext() && !isComplete()) {
+							Object frame = i.next();
+							if(phase<3 && !isBelowSkippedFrames((String) getClassName.invoke(frame))) continue;
+							depth++;
+							if(elements.size()<maxFrames) elements.add((StackTraceElement) toStackTraceElement.invoke(frame));
+						}
+						return null;
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void readLazily(Throwable trace) throws Exception {
+		int total = (Integer) getStackTraceDepth.invoke(javaLangAccess, trace);
+		for(int i=0; i<total && !isComplete(); i++) {
+			if(phase==3 && elements.size()==maxFrames) {
+				//only counting; the remaining frames need not be read
+				depth += total-i;
+				return;
+			}
+			StackTraceElement element = (StackTraceElement) getStackTraceElement.invoke(javaLangAccess, trace, i);
+			if(phase<3 && !isBelowSkippedFrames(element.getClassName())) continue;
+			depth++;
+			if(elements.size()<maxFrames) elements.add(element);
+		}
+	}
+
+	/**
+	 * Tells whether a frame of the given class, the next one down the stack, is below the
+	 * frames of this class and the skipped frames.
+	 */
+	private boolean isBelowSkippedFrames(String className) {
+		boolean own = className.equals(StackFrames.class.getName());
+		if(phase==0) {
+			if(own) phase = 1;
+			return false;
+		}
+		if(phase==1) {
+			if(own) return false;
+			phase = 2;
+		}
+		if(skippedClassNames.contains(className)) return false;
+		phase = 3;
+		return true;
+	}
+
+	private boolean isComplete() {
+		return !countFrames && elements.size()==maxFrames;
+	}
+
+	/**
+	 * Returns the <code>i</code>-th frame kept, where frame 0 is the first frame that was not
+	 * skipped. Returns <code>null</code> if there is no such frame, or it was not kept.
+	 */
+	public StackTraceElement element(int i) {
+		return i>=0 && i<elements.size() ? elements.get(i) : null;
+	}
+
+	/**
+	 * Returns the number of frames below the skipped ones. Only available if frames were counted.
+	 */
+	public int depth() {
+		if(!countFrames) throw new IllegalStateException("Frames were not counted");
+		return depth;
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.normalizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import de.bodden.tamiflex.normalizer.ClassRenamer.NoHashedNameException;
+
+public class HasherTest {
+
+	@Before
+	public void setUp() {
+		Hasher.normalize();
+		Hasher.generatedClassNameToHashedClassName.clear();
+	}
+
+	@After
+	public void tearDown() {
+		Hasher.generatedClassNameToHashedClassName.clear();
+	}
+
+	@Test
+	public void hashesReferencedClassesFirst() {
+		//each proxy references the one before; dependents come first in the map
+		Map<String,byte[]> classes = new LinkedHashMap<String, byte[]>();
+		classes.put("p/$Proxy2", proxy("p/$Proxy2", "p/$Proxy1"));
+		classes.put("p/$Proxy1", proxy("p/$Proxy1", "p/$Proxy0"));
+		classes.put("p/$Proxy0", proxy("p/$Proxy0", null));
+		classes.put("p/$Proxy3", proxy("p/$Proxy3", null));
+
+		Hasher.generateHashNumbers(classes, null);
+		Map<String,String> parallel = new HashMap<String, String>(Hasher.generatedClassNameToHashedClassName);
+		assertEquals(4, parallel.size());
+
+		//the same names as when hashing one class after another, in the order of their references
+		Hasher.generatedClassNameToHashedClassName.clear();
+		for(String className: new String[] { "p/$Proxy0", "p/$Proxy1", "p/$Proxy2", "p/$Proxy3" }) {
+			Hasher.generateHashNumber(className, classes.get(className));
+		}
+		assertEquals(Hasher.generatedClassNameToHashedClassName, parallel);
+		assertTrue(parallel.get("p/$Proxy1").startsWith("p/$Proxy$HASHED$"));
+	}
+
+	@Test
+	public void hashingOutOfOrderFails() {
+		try {
+			Hasher.generateHashNumber("p/$Proxy1", proxy("p/$Proxy1", "p/$Proxy0"));
+			fail("hashed a class before the class it references");
+		} catch (NoHashedNameException e) {
+			assertEquals("p/$Proxy0", e.getMessage());
+		}
+	}
+
+	@Test
+	public void hashNamesOnlyDependOnHashedReferences() {
+		Map<String,byte[]> classes = new LinkedHashMap<String, byte[]>();
+		classes.put("p/$Proxy7", proxy("p/$Proxy7", "p/$Proxy8"));
+		classes.put("p/$Proxy8", proxy("p/$Proxy8", null));
+		Hasher.generateHashNumbers(classes, null);
+		String first = Hasher.hashedClassNameForGeneratedClassName("p/$Proxy7");
+
+		//the same classes under other numbers, as in another run
+		Hasher.generatedClassNameToHashedClassName.clear();
+		classes.clear();
+		classes.put("p/$Proxy11", proxy("p/$Proxy11", "p/$Proxy12"));
+		classes.put("p/$Proxy12", proxy("p/$Proxy12", null));
+		Hasher.generateHashNumbers(classes, null);
+		assertEquals(first, Hasher.hashedClassNameForGeneratedClassName("p/$Proxy11"));
+	}
+
+	@Test
+	public void cyclesFallBackToGivenOrder() {
+		Map<String,byte[]> classes = new LinkedHashMap<String, byte[]>();
+		classes.put("p/$Proxy0", proxy("p/$Proxy0", null));
+		classes.put("p/$Proxy4", proxy("p/$Proxy4", "p/$Proxy5"));
+		classes.put("p/$Proxy5", proxy("p/$Proxy5", "p/$Proxy4"));
+		try {
+			Hasher.generateHashNumbers(classes, null);
+			fail("hashed classes that reference each other");
+		} catch (NoHashedNameException e) {
+			assertEquals("p/$Proxy5", e.getMessage());
+		}
+		//classes outside of the cycle are hashed nonetheless
+		assertNotNull(Hasher.generatedClassNameToHashedClassName.get("p/$Proxy0"));
+		assertFalse(Hasher.generatedClassNameToHashedClassName.containsKey("p/$Proxy4"));
+	}
+
+	@Test
+	public void onlyNumberedProxiesAreGenerated() {
+		assertTrue(Hasher.containsGeneratedClassName("com/sun/proxy/$Proxy12"));
+		assertFalse(Hasher.containsGeneratedClassName("java/lang/reflect/Proxy$ProxyClassFactory"));
+		assertFalse(Hasher.containsGeneratedClassName("p/$Proxy"));
+	}
+
+	/**
+	 * Returns a class with the given name and, unless <code>referenced</code> is
+	 * <code>null</code>, a field of the referenced type.
+	 */
+	private static byte[] proxy(String className, String referenced) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, className, null, "java/lang/Object", null);
+		if(referenced!=null) {
+			writer.visitField(Opcodes.ACC_PRIVATE, "next", "L" + referenced + ";", null, null).visitEnd();
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+}
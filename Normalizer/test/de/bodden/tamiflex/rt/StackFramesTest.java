@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StackFramesTest {
+
+	private static final Set<String> SKIPPED = Collections.singleton(Helper.class.getName());
+
+	static class Helper {
+
+		static StackFrames capture(int maxFrames, boolean countFrames) {
+			return nested(maxFrames, countFrames);
+		}
+
+		private static StackFrames nested(int maxFrames, boolean countFrames) {
+			return new StackFrames(SKIPPED, maxFrames, countFrames);
+		}
+
+		public static StackFrames captureReflectively() throws Exception {
+			Method capture = Helper.class.getDeclaredMethod("capture", int.class, boolean.class);
+			return (StackFrames) capture.invoke(null, 10, false);
+		}
+	}
+
+	@Test
+	public void skipsGivenClassesAtTheTop() {
+		StackFrames frames = Helper.capture(2, false);
+		assertEquals(StackFramesTest.class.getName(), frames.element(0).getClassName());
+		assertEquals("skipsGivenClassesAtTheTop", frames.element(0).getMethodName());
+		assertEquals(2, count(frames));
+	}
+
+	@Test
+	public void keepsOnlyTheRequestedFrames() {
+		assertEquals(1, count(Helper.capture(1, false)));
+		assertNull(Helper.capture(0, false).element(0));
+		assertNull(Helper.capture(2, false).element(-1));
+	}
+
+	@Test
+	public void countsAllFramesBelowTheSkippedOnes() {
+		StackFrames frames = Helper.capture(1, true);
+		//the current frame is on the stack of this method, too
+		int expected = new Throwable().getStackTrace().length;
+		assertEquals(expected, frames.depth());
+		assertEquals(1, count(frames));
+	}
+
+	@Test
+	public void showsReflectionFrames() throws Exception {
+		StackFrames frames = Helper.captureReflectively();
+		//as in Throwable.getStackTrace(), Method.invoke and its implementation are on the stack
+		boolean found = false;
+		for(int i=0; frames.element(i)!=null; i++) {
+			StackTraceElement e = frames.element(i);
+			if(e.getClassName().equals(Method.class.getName()) && e.getMethodName().equals("invoke")) found = true;
+		}
+		assertEquals(true, found);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void depthRequiresCounting() {
+		Helper.capture(1, false).depth();
+	}
+
+	private static int count(StackFrames frames) {
+		int i = 0;
+		while(frames.element(i)!=null) i++;
+		return i;
+	}
+}
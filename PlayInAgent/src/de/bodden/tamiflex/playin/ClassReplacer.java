@@ -24,8 +24,10 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.objectweb.asm.ClassVisitor;
 
@@ -47,6 +49,11 @@ public class ClassReplacer implements ClassFileTransformer {
         }
     }
 
+    /**
+     * The archive into which the Play-Out agent dumps classes if configured to do so.
+     */
+    private static final String CLASS_ARCHIVE_NAME = "classes.jar";
+
     private static final String ASM_PKGNAME = ClassVisitor.class.getPackage().getName().replace('.', '/');
 
     /**
@@ -214,7 +221,10 @@ public class ClassReplacer implements ClassFileTransformer {
      * Returns a class loader that loads classes <i>only</i> from the provided
      * <code>srcPath</code>. This path has to be in standard classpath format,
      * separated by {@link File#pathSeparator}. Note that this class loader does
-     * <i>not</i> delegate!
+     * <i>not</i> delegate! In a directory that contains the Play-Out agent's class
+     * archive, the archive is searched first. Class files of an earlier run that
+     * dumped into single files may still be in the directory, and must not shadow
+     * the classes of the archive.
      *
      * @param srcPath The path to load from.
      *
@@ -222,16 +232,20 @@ public class ClassReplacer implements ClassFileTransformer {
      */
     private URLClassLoader createClassLoader(String srcPath) {
         String[] pathSegments = srcPath.split(File.pathSeparator);
-        URL[] urls = new URL[pathSegments.length];
-        int i = 0;
+        List<URL> urls = new ArrayList<>();
         for (String segment : pathSegments) {
             try {
-                urls[i++] = new File(segment).toURI().toURL();
+                File file = new File(segment);
+                File archive = new File(file, CLASS_ARCHIVE_NAME);
+                if (archive.isFile()) {
+                    urls.add(archive.toURI().toURL());
+                }
+                urls.add(file.toURI().toURL());
             } catch (MalformedURLException e) {
                 e.printStackTrace(Agent.err());
             }
         }
-        return new RestrictedURLClassLoader(urls);
+        return new RestrictedURLClassLoader(urls.toArray(new URL[urls.size()]));
     }
 
     /**
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static de.bodden.tamiflex.playout.rt.BinaryLogWriter.MAGIC;
+import static de.bodden.tamiflex.playout.rt.BinaryLogWriter.UTF8;
+import static de.bodden.tamiflex.playout.rt.BinaryLogWriter.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a log written by a {@link BinaryLogWriter}.
+ */
+public class BinaryLogReader implements LogReader {
+
+	private final InputStream in;
+
+	private final boolean keepCounts;
+
+	private final List<String> stringTable = new ArrayList<String>();
+
+	//kinds by index into the string table; kinds are stored by label so that the format does not depend on the order of Kind's constants
+	private final List<Kind> kinds = new ArrayList<Kind>();
+
+	public BinaryLogReader(InputStream is, boolean keepCounts) throws IOException {
+		this.in = is instanceof BufferedInputStream ? is : new BufferedInputStream(is, 1 << 16);
+		this.keepCounts = keepCounts;
+		for(byte b: MAGIC) {
+			if(in.read()!=b) throw new IOException("not a binary log");
+		}
+		long version = readVarint();
+		if(version!=VERSION) throw new IOException("unsupported version of binary log: "+version);
+	}
+
+	/**
+	 * Tells whether the given stream starts with the header of a binary log. The stream must
+	 * support marks; its position is unchanged.
+	 */
+	public static boolean hasMagic(InputStream is) throws IOException {
+		is.mark(MAGIC.length);
+		try {
+			for(byte b: MAGIC) {
+				if(is.read()!=b) return false;
+			}
+			return true;
+		} finally {
+			is.reset();
+		}
+	}
+
+	public PersistedLogEntry read() throws IOException {
+		int first = in.read();
+		if(first<0) return null;
+		Kind kind = readKind(first);
+		String target = readString(in.read());
+		String containerMethod = readString(in.read());
+		int lineNumber = (int) readVarint()-1;
+		String metadata = readString(in.read());
+		long count = readVarint();
+		return new PersistedLogEntry(containerMethod, lineNumber, kind, target, metadata, keepCounts ? count : 0);
+	}
+
+	private Kind readKind(int firstByte) throws IOException {
+		int index = readReference(firstByte);
+		if(index<0) {
+			index = stringTable.size();
+			readNewString();
+		}
+		while(kinds.size()<=index) kinds.add(null);
+		Kind kind = kinds.get(index);
+		if(kind==null) {
+			kind = Kind.kindForLabel(stringTable.get(index));
+			kinds.set(index, kind);
+		}
+		return kind;
+	}
+
+	private String readString(int firstByte) throws IOException {
+		int index = readReference(firstByte);
+		return index<0 ? readNewString() : stringTable.get(index);
+	}
+
+	//returns the referenced index, or -1 if a new string follows
+	private int readReference(int firstByte) throws IOException {
+		long ref = readVarint(firstByte);
+		if(ref>stringTable.size()) throw new IOException("corrupt binary log: undefined string "+ref);
+		return (int) ref-1;
+	}
+
+	private String readNewString() throws IOException {
+		int length = (int) readVarint();
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while(read<length) {
+			int n = in.read(bytes, read, length-read);
+			if(n<0) throw new EOFException();
+			read += n;
+		}
+		String s = new String(bytes, UTF8);
+		stringTable.add(s);
+		return s;
+	}
+
+	private long readVarint() throws IOException {
+		return readVarint(in.read());
+	}
+
+	private long readVarint(int b) throws IOException {
+		long value = 0;
+		int shift = 0;
+		while(true) {
+			if(b<0) throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+			shift += 7;
+			if(shift>63) throw new IOException("corrupt binary log: varint too long");
+			b = in.read();
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a log in binary format. The file starts with the bytes <code>TFLB</code> and a
+ * version number, followed by one record per entry:
+ * <pre>
+ * kind target container line metadata count
+ * </pre>
+ * All strings, including the kind's label, are stored in a string table that is built up
+ * while writing: a string reference <code>0</code> is followed by a new string (its length
+ * in bytes and its UTF-8 encoding), which is thereby assigned the next index; a reference
+ * <code>n&gt;0</code> denotes the string with index <code>n-1</code>. The line is stored
+ * as <code>line+1</code>, so that a missing line number is stored as <code>0</code>.
+ * References, lines, lengths and counts are unsigned varints (7 bits per byte, least
+ * significant group first, high bit set on all but the last byte).
+ *
+ * As the table is written inline, a binary log is smaller than the text log, the more so the
+ * more strings its entries share. It is not read any faster, though.
+ */
+public class BinaryLogWriter implements LogWriter {
+
+	static final byte[] MAGIC = { 'T', 'F', 'L', 'B' };
+
+	static final int VERSION = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final OutputStream out;
+
+	private final Map<String,Integer> stringTable = new HashMap<String,Integer>();
+
+	public BinaryLogWriter(OutputStream os) throws IOException {
+		this.out = new BufferedOutputStream(os, 1 << 16);
+		out.write(MAGIC);
+		writeVarint(VERSION);
+	}
+
+	public void write(PersistedLogEntry entry) throws IOException {
+		writeString(entry.getKind().label());
+		writeString(entry.getTargetClassOrMethod());
+		writeString(entry.getContainerMethod());
+		writeVarint(entry.getLineNumber()+1);
+		writeString(entry.getMetadata());
+		writeVarint(entry.getCount());
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private void writeString(String s) throws IOException {
+		Integer index = stringTable.get(s);
+		if(index!=null) {
+			writeVarint(index+1);
+		} else {
+			stringTable.put(s, stringTable.size());
+			writeVarint(0);
+			byte[] bytes = s.getBytes(UTF8);
+			writeVarint(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private void writeVarint(long value) throws IOException {
+		if(value<0) throw new IllegalArgumentException("negative value: "+value);
+		while((value & ~0x7FL)!=0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
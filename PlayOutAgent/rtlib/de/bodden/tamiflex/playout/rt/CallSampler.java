@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which reflective calls are counted when counting is sampled. For a kind with a
+ * sampling interval of N, the first call of each target at each frame is always counted,
+ * and of the later calls, one in N (at random) is counted N times; all others return
+ * from the logging hook before looking up their log entry. Counts of sampled kinds are
+ * thus estimates, which is recorded in the metadata of their log entries.
+ * Calls to Array.newInstance are always counted exactly, as their targets are not canonical.
+ */
+public class CallSampler {
+
+	/** Marks the metadata of log entries whose count is estimated. */
+	public static final String ESTIMATE = "countEstimated";
+
+	//kind -> sampling interval; 0 or 1 means that every call is counted
+	private static final int[] intervals = new int[Kind.values().length];
+
+	/**
+	 * Sets the sampling interval of every kind to the one given in <code>intervalsByLabel</code>
+	 * under the kind's {@link Kind#label() label}, or to <code>defaultInterval</code> if the kind
+	 * is not mentioned there. The map is keyed by labels, as the agent configures this class
+	 * from outside the bootstrap class loader, which sees another copy of {@link Kind}.
+	 */
+	public static void configure(int defaultInterval, Map<String,Integer> intervalsByLabel) {
+		for(String label: intervalsByLabel.keySet()) {
+			try {
+				Kind.kindForLabel(label);
+			} catch (RuntimeException e) {
+				System.err.println("WARNING: Ignoring sampling interval of unknown kind "+label);
+			}
+		}
+		for(Kind kind: Kind.values()) {
+			Integer interval = intervalsByLabel.get(kind.label());
+			intervals[kind.ordinal()] = kind==Kind.ArrayNewInstance ? 0 : (interval!=null ? interval : defaultInterval);
+		}
+	}
+
+	/**
+	 * Tells whether calls of the given kind are sampled, i.e., whether the counts of their
+	 * log entries are estimates.
+	 */
+	public static boolean isSampled(Kind kind) {
+		return intervals[kind.ordinal()]>1;
+	}
+
+	/**
+	 * Returns by how much to increment the count of a log entry of the given kind
+	 * that has been counted before: 0 if this call is skipped, and the sampling
+	 * interval if it is sampled.
+	 */
+	static int weight(Kind kind) {
+		int interval = intervals[kind.ordinal()];
+		if(interval<=1) return 1;
+		return ThreadLocalRandom.current().nextInt(interval)==0 ? interval : 0;
+	}
+}
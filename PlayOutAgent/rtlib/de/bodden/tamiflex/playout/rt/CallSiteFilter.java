@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which reflective calls are logged, by the class that contains the call and by the
+ * class that the call targets. Patterns are whitespace-separated lists of fully-qualified
+ * class names, where a trailing <code>*</code> matches any suffix, e.g. <code>java.*</code>
+ * or <code>org.springframework.*</code>. A class passes a filter if it matches one of the
+ * included patterns, or no patterns are included, and it matches none of the excluded patterns.
+ *
+ * Classes are checked through their ids in the {@link SymbolTable}, and the result is
+ * remembered per id, so that the patterns are matched only once for each class.
+ */
+public class CallSiteFilter {
+
+	private static volatile Matcher containers = new Matcher("", "");
+
+	private static volatile Matcher targets = new Matcher("", "");
+
+	/**
+	 * Sets the patterns for container classes and target classes; see above.
+	 */
+	public static void configure(String includeContainers, String excludeContainers, String includeTargets, String excludeTargets) {
+		containers = new Matcher(includeContainers, excludeContainers);
+		targets = new Matcher(includeTargets, excludeTargets);
+	}
+
+	/**
+	 * Tells whether reflective calls within the given class, which must be in dotted format, are logged.
+	 */
+	public static boolean acceptsContainerClass(String className) {
+		return containers.matches(className);
+	}
+
+	static boolean acceptsContainer(int classNameId) {
+		return containers.matches(classNameId);
+	}
+
+	static boolean acceptsTarget(int classNameId) {
+		return targets.matches(classNameId);
+	}
+
+	private static class Matcher {
+
+		private static final byte UNKNOWN = 0, ACCEPTED = 1, REJECTED = 2;
+
+		private final String[] includedPrefixes, excludedPrefixes;
+
+		private final Set<String> includedNames, excludedNames;
+
+		//true if there are no patterns at all, so that nothing needs to be checked
+		private final boolean acceptsAll;
+
+		//symbol id -> one of the constants above; grown on demand, racy writes store the same result
+		private volatile byte[] results = new byte[1024];
+
+		Matcher(String includes, String excludes) {
+			List<String> prefixes = new ArrayList<String>();
+			includedNames = new HashSet<String>();
+			parse(includes, prefixes, includedNames);
+			includedPrefixes = prefixes.toArray(new String[prefixes.size()]);
+
+			prefixes.clear();
+			excludedNames = new HashSet<String>();
+			parse(excludes, prefixes, excludedNames);
+			excludedPrefixes = prefixes.toArray(new String[prefixes.size()]);
+
+			acceptsAll = includedPrefixes.length==0 && includedNames.isEmpty() && excludedPrefixes.length==0 && excludedNames.isEmpty();
+		}
+
+		private static void parse(String patterns, List<String> prefixes, Set<String> names) {
+			for(String pattern: patterns.trim().split("\\s+")) {
+				if(pattern.isEmpty()) continue;
+				if(pattern.endsWith("*")) {
+					prefixes.add(pattern.substring(0, pattern.length()-1));
+				} else {
+					names.add(pattern);
+				}
+			}
+		}
+
+		boolean matches(int classNameId) {
+			if(acceptsAll) return true;
+			byte[] r = results;
+			if(classNameId<r.length && r[classNameId]!=UNKNOWN) return r[classNameId]==ACCEPTED;
+
+			boolean accepted = matches(SymbolTable.symbol(classNameId));
+			if(classNameId>=r.length) r = grow(classNameId);
+			r[classNameId] = accepted ? ACCEPTED : REJECTED;
+			return accepted;
+		}
+
+		private synchronized byte[] grow(int classNameId) {
+			byte[] r = results;
+			if(classNameId<r.length) return r;
+			int length = r.length;
+			while(length<=classNameId) length *= 2;
+			byte[] larger = new byte[length];
+			System.arraycopy(r, 0, larger, 0, r.length);
+			results = larger;
+			return larger;
+		}
+
+		boolean matches(String className) {
+			if(acceptsAll) return true;
+			boolean included = (includedPrefixes.length==0 && includedNames.isEmpty())
+				|| includedNames.contains(className) || startsWithAny(className, includedPrefixes);
+			return included && !excludedNames.contains(className) && !startsWithAny(className, excludedPrefixes);
+		}
+
+		private static boolean startsWithAny(String className, String[] prefixes) {
+			for(String prefix: prefixes) {
+				if(className.startsWith(prefix)) return true;
+			}
+			return false;
+		}
+	}
+}
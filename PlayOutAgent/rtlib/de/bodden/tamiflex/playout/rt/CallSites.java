@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.bodden.tamiflex.playout.rt.FrameResolver.Frame;
+
+/**
+ * The table of call sites known from instrumenting application classes in call-site mode.
+ * Each reflective call site is registered when its class is instrumented, and the hook
+ * inserted at the site passes the site's id. Hence, the hook looks up the calling frame
+ * instead of walking the stack. Sites in the same method and line share an id, as they
+ * share their log entries.
+ */
+public class CallSites {
+
+	//written under the lock, read without; re-published after every write, so that readers see complete frames
+	private static volatile Frame[] frames = new Frame[1024];
+
+	private static final Map<String,Integer> siteToId = new HashMap<String,Integer>();
+
+	/**
+	 * Returns the id of the call site in the given method and line; the class name is
+	 * in internal format (with slashes). The line is -1 if unknown.
+	 */
+	public static synchronized int register(String className, String methodName, int lineNumber) {
+		String key = className+"."+methodName+":"+lineNumber;
+		Integer id = siteToId.get(key);
+		if(id!=null) return id;
+
+		id = siteToId.size();
+		Frame[] f = frames;
+		if(id==f.length) {
+			Frame[] larger = new Frame[f.length*2];
+			System.arraycopy(f, 0, larger, 0, f.length);
+			f = larger;
+		}
+		f[id] = new Frame(className.replace('/', '.'), methodName, lineNumber);
+		frames = f;
+		siteToId.put(key, id);
+		return id;
+	}
+
+	static Frame frame(int id) {
+		return frames[id];
+	}
+
+	/**
+	 * Forgets which targets have been logged at the known call sites.
+	 */
+	static synchronized void forgetLogged() {
+		Frame[] f = frames;
+		for(int id=0; id<siteToId.size(); id++) {
+			f[id].forgetLogged();
+		}
+	}
+}
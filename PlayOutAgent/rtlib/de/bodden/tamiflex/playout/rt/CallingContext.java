@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.bodden.tamiflex.playout.rt.FrameResolver.Frame;
+
+/**
+ * The chain of the last few callers of a container method, innermost caller first.
+ * Contexts form a tree rooted at {@link #ROOT}, the empty context: the children of a context
+ * extend it by one more caller further out. Children are created once and then shared, so that
+ * contexts can be compared by identity, and memory grows with the number of distinct contexts only.
+ */
+public class CallingContext {
+
+	/** Separates the callers in the persisted form of a context. */
+	public static final char SEPARATOR = '|';
+
+	public static final CallingContext ROOT = new CallingContext(null, -1, -1);
+
+	private final CallingContext parent;
+
+	//ids in the SymbolTable
+	private final int callerMethod;
+
+	private final int lineNumber;
+
+	//(caller method, line) -> child; created on demand, as most contexts are leaves
+	private volatile ConcurrentMap<Long,CallingContext> children;
+
+	private CallingContext(CallingContext parent, int callerMethod, int lineNumber) {
+		this.parent = parent;
+		this.callerMethod = callerMethod;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Returns this context extended by the given caller, which is further out than all callers
+	 * of this context.
+	 */
+	public CallingContext child(Frame caller) {
+		ConcurrentMap<Long,CallingContext> c = children;
+		if(c==null) {
+			synchronized(this) {
+				c = children;
+				if(c==null) {
+					c = new ConcurrentHashMap<Long,CallingContext>(4, 0.75f, 2);
+					children = c;
+				}
+			}
+		}
+		Long key = ((long) caller.getContainerMethodId() << 32) | (caller.getLineNumber() & 0xffffffffL);
+		CallingContext child = c.get(key);
+		if(child==null) {
+			child = new CallingContext(this, caller.getContainerMethodId(), caller.getLineNumber());
+			CallingContext other = c.putIfAbsent(key, child);
+			if(other!=null) child = other;
+		}
+		return child;
+	}
+
+	public boolean isEmpty() {
+		return this==ROOT;
+	}
+
+	/**
+	 * Tells whether any of the callers is a method of a generated class.
+	 */
+	public boolean mentionsGeneratedClass() {
+		for(CallingContext c=this; !c.isEmpty(); c=c.parent) {
+			if(RuntimeLogEntry.isGeneratedClass(c.callerMethod)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the callers, innermost first, in the format <code>Class.Name.methodName:line</code>,
+	 * separated by {@link #SEPARATOR}. Generated class names are replaced by their hashed names.
+	 */
+	public String toPersistedString() {
+		return toString(true);
+	}
+
+	@Override
+	public String toString() {
+		return toString(false);
+	}
+
+	private String toString(boolean hashed) {
+		StringBuilder b = new StringBuilder();
+		append(b, hashed);
+		return b.toString();
+	}
+
+	private void append(StringBuilder b, boolean hashed) {
+		if(isEmpty()) return;
+		parent.append(b, hashed);
+		if(!parent.isEmpty()) b.append(SEPARATOR);
+		b.append(hashed ? RuntimeLogEntry.replaceByHashedClassNameAndMethodName(callerMethod) : SymbolTable.symbol(callerMethod));
+		if(lineNumber>-1) {
+			b.append(':');
+			b.append(lineNumber);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Resolves the stack trace elements returned by {@link de.bodden.tamiflex.rt.StackFrames}
+ * to {@link Frame}s, which are cached.
+ */
+public class FrameResolver {
+
+	/**
+	 * Class name, method name and line number of a single stack frame, optionally
+	 * qualified by the frame's {@link CallingContext}.
+	 * Instances returned by {@link FrameResolver#frameFor(StackTraceElement)} are
+	 * cached, so that the container-method name is only built once per frame.
+	 */
+	public static class Frame {
+
+		private final String className;
+
+		//id of the class name in the SymbolTable, against which the CallSiteFilter checks the frame
+		private final int classNameId;
+
+		private final String methodName;
+
+		private final int lineNumber;
+
+		//id in the SymbolTable; frames of the same method share the symbol
+		private final int containerMethod;
+
+		//null for frames without context
+		private final CallingContext context;
+
+		//context -> this frame in that context; created on demand, see inContext(CallingContext)
+		private volatile ConcurrentMap<CallingContext,Frame> contextFrames;
+
+		//kind and accessibility -> targets that have already been logged at this frame, see ReflLogger;
+		//held strongly, hence targets must not keep classes alive
+		private final AtomicReferenceArray<Set<Object>> loggedTargets = new AtomicReferenceArray<Set<Object>>(2*NUM_KINDS);
+
+		protected Frame(String className, String methodName, int lineNumber) {
+			this.className = className;
+			this.classNameId = SymbolTable.id(className);
+			this.methodName = methodName;
+			this.lineNumber = lineNumber;
+			this.containerMethod = SymbolTable.id(className+"."+methodName);
+			this.context = null;
+		}
+
+		private Frame(Frame frame, CallingContext context) {
+			this.className = frame.className;
+			this.classNameId = frame.classNameId;
+			this.methodName = frame.methodName;
+			this.lineNumber = frame.lineNumber;
+			this.containerMethod = frame.containerMethod;
+			this.context = context;
+		}
+
+		/**
+		 * Returns this frame in the given context. There is one such frame per context, so that
+		 * targets logged at the frame are remembered per context.
+		 */
+		public Frame inContext(CallingContext context) {
+			ConcurrentMap<CallingContext,Frame> f = contextFrames;
+			if(f==null) {
+				synchronized(this) {
+					f = contextFrames;
+					if(f==null) {
+						f = new ConcurrentHashMap<CallingContext,Frame>(4, 0.75f, 2);
+						contextFrames = f;
+					}
+				}
+			}
+			Frame frame = f.get(context);
+			if(frame==null) {
+				frame = new Frame(this, context);
+				Frame other = f.putIfAbsent(context, frame);
+				if(other!=null) frame = other;
+			}
+			return frame;
+		}
+
+		/** Returns the context of this frame, or <code>null</code> if it has none. */
+		public CallingContext getContext() {
+			return context;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		/** Returns the fully-qualified name of the frame's method, in the format <code>Class.Name.methodName</code>. */
+		public String getContainerMethod() {
+			return SymbolTable.symbol(containerMethod);
+		}
+
+		/** Returns the id of the frame's container method in the {@link SymbolTable}. */
+		public int getContainerMethodId() {
+			return containerMethod;
+		}
+
+		/** Tells whether reflective calls in this frame are logged, see {@link CallSiteFilter}. */
+		public boolean isAccepted() {
+			return CallSiteFilter.acceptsContainer(classNameId);
+		}
+
+		/**
+		 * Returns <code>true</code> if {@link #markLogged(Kind, boolean, Object)} has been called
+		 * for the same arguments before. Targets are compared with equals(). As frames are cached,
+		 * targets must not reference classes, which would keep their class loaders alive; callers
+		 * pass class names or the targets held by the {@link TargetCache}, which hold symbol ids only.
+		 */
+		public boolean hasLogged(Kind kind, boolean isAccessible, Object target) {
+			Set<Object> targets = loggedTargets.get(slot(kind, isAccessible));
+			return targets!=null && targets.contains(target);
+		}
+
+		public void markLogged(Kind kind, boolean isAccessible, Object target) {
+			int slot = slot(kind, isAccessible);
+			Set<Object> targets = loggedTargets.get(slot);
+			if(targets==null) {
+				loggedTargets.compareAndSet(slot, null, Collections.newSetFromMap(new ConcurrentHashMap<Object,Boolean>(4, 0.75f, 2)));
+				targets = loggedTargets.get(slot);
+			}
+			targets.add(target);
+		}
+
+		/**
+		 * Forgets which targets have been logged at this frame and its frames in contexts.
+		 */
+		void forgetLogged() {
+			for(int i=0; i<loggedTargets.length(); i++) {
+				loggedTargets.set(i, null);
+			}
+			contextFrames = null;
+		}
+
+		private static int slot(Kind kind, boolean isAccessible) {
+			return 2*kind.ordinal() + (isAccessible ? 1 : 0);
+		}
+	}
+
+	private static final int NUM_KINDS = Kind.values().length;
+
+	/**
+	 * Upper bound on the number of cached frames, so that the cache cannot grow without bounds.
+	 * When the cache is full, a quarter of it is evicted.
+	 */
+	private static final int MAX_CACHED_FRAMES = 1 << 16;
+
+	private static final ConcurrentMap<StackTraceElement,Frame> frameCache = new ConcurrentHashMap<StackTraceElement,Frame>(1024, 0.75f, 64);
+
+	/**
+	 * Returns the (usually cached) frame for the given stack trace element.
+	 */
+	public static Frame frameFor(StackTraceElement element) {
+		Frame frame = frameCache.get(element);
+		if(frame==null) {
+			frame = new Frame(element.getClassName(), element.getMethodName(), element.getLineNumber());
+			if(frameCache.size()>=MAX_CACHED_FRAMES) evict();
+			Frame other = frameCache.putIfAbsent(element, frame);
+			if(other!=null) frame = other;
+		}
+		return frame;
+	}
+
+	private static synchronized void evict() {
+		//arbitrary frames go; what was logged at them is still in the log, only the fast path is lost
+		Iterator<Frame> frames = frameCache.values().iterator();
+		while(frameCache.size()>MAX_CACHED_FRAMES/4*3 && frames.hasNext()) {
+			frames.next();
+			frames.remove();
+		}
+	}
+
+	/**
+	 * Forgets all cached frames, and hence which targets have been logged at them.
+	 */
+	static void clear() {
+		frameCache.clear();
+	}
+}
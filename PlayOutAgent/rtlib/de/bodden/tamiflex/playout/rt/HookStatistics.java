@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the calls of the logging hooks per {@link Kind}, and the time spent in them, for the
+ * agent's management interface. As taking the time costs two calls to System.nanoTime() per
+ * hook, statistics are only collected while they are enabled.
+ */
+public class HookStatistics {
+
+	private static volatile boolean enabled;
+
+	private static final StripedCounter[] callsPerKind = new StripedCounter[Kind.values().length];
+
+	private static final StripedCounter nanos = new StripedCounter();
+
+	static {
+		for(int i=0; i<callsPerKind.length; i++) {
+			callsPerKind[i] = new StripedCounter();
+		}
+	}
+
+	/**
+	 * Returns the start time of a hook call, or 0 if statistics are disabled.
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	static void stop(Kind kind, long start) {
+		if(start==0) return;
+		callsPerKind[kind.ordinal()].increment();
+		nanos.add(System.nanoTime()-start);
+	}
+
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the number of hook calls per kind while statistics were enabled, keyed by the
+	 * kinds' labels and sorted by them; kinds without calls are omitted. The keys are labels,
+	 * as the agent calls this from outside the bootstrap class loader, which sees another copy
+	 * of {@link Kind}.
+	 */
+	public static Map<String,Long> callsPerKind() {
+		Map<String,Long> calls = new TreeMap<String,Long>();
+		for(Kind kind: Kind.values()) {
+			long n = callsPerKind[kind.ordinal()].sum();
+			if(n>0) calls.put(kind.label(), n);
+		}
+		return calls;
+	}
+
+	/**
+	 * Returns the time spent in hooks while statistics were enabled, in nanoseconds.
+	 */
+	public static long nanos() {
+		return nanos.sum();
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.bodden.tamiflex.playout.rt.FrameResolver.Frame;
+
+/**
+ * Emits Java Flight Recorder events for reflective calls, class dumps, and the hashing of generated
+ * classes, so that these show up in the same recordings as CPU and allocation profiles.
+ * The events are defined through jdk.jfr.EventFactory, which is accessed reflectively, as the agent
+ * also has to run on VMs without JFR. JFR records the thread, stack trace and duration of each event
+ * and, if configured, drops events below a duration threshold. The duration of a reflective call
+ * event is the time spent in the logging hook.
+ *
+ * As creating an event this way is not cheap, only one in <code>samplingInterval</code> reflective
+ * calls is recorded. Class dumps and hashing are comparatively rare and are always recorded.
+ */
+public class JfrEvents {
+
+	private static final String CATEGORY = "TamiFlex";
+
+	private static volatile boolean enabled;
+
+	private static int samplingInterval;
+
+	//instances of jdk.jfr.EventFactory
+	private static Object reflectiveCallFactory, classDumpFactory, classHashingFactory;
+
+	private static Method newEvent, set, begin, end, commit;
+
+	//set while this thread creates or commits an event; the reflective calls involved may load
+	//classes, and the events for dumping those must not be emitted in turn
+	private static final ThreadLocal<boolean[]> emitting = new ThreadLocal<boolean[]>() {
+		@Override
+		protected boolean[] initialValue() {
+			return new boolean[1];
+		}
+	};
+
+	/**
+	 * Defines the event types and starts emitting events. Prints a warning and leaves events
+	 * disabled if the VM does not support JFR.
+	 */
+	public static synchronized void enable(int samplingInterval) {
+		JfrEvents.samplingInterval = Math.max(1, samplingInterval);
+		if(reflectiveCallFactory!=null) {
+			//defined already, e.g. when the agent was attached before
+			enabled = true;
+			return;
+		}
+		//reflective calls issued while defining the events must not be logged
+		ReflLogger.enteringReflectionAPI();
+		try {
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			newEvent = factoryClass.getMethod("newEvent");
+			set = eventClass.getMethod("set", int.class, Object.class);
+			begin = eventClass.getMethod("begin");
+			end = eventClass.getMethod("end");
+			commit = eventClass.getMethod("commit");
+			reflectiveCallFactory = createFactory("de.bodden.tamiflex.ReflectiveCall", "Reflective Call",
+					String.class, "kind", "Kind", String.class, "target", "Target", String.class, "callSite", "Call Site");
+			classDumpFactory = createFactory("de.bodden.tamiflex.ClassDump", "Class Dump",
+					String.class, "className", "Class Name", int.class, "size", "Size");
+			classHashingFactory = createFactory("de.bodden.tamiflex.ClassHashing", "Generated Class Hashing",
+					String.class, "className", "Class Name", String.class, "hashedName", "Hashed Name");
+			enabled = true;
+		} catch (ClassNotFoundException e) {
+			System.err.println("WARNING: This VM does not support Java Flight Recorder events.");
+		} catch (Exception e) {
+			System.err.println("WARNING: Cannot define Java Flight Recorder events: "+e);
+		} finally {
+			ReflLogger.leavingReflectionAPI();
+		}
+	}
+
+	public static void disable() {
+		enabled = false;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Creates an event factory for events with the given name and label, and with fields
+	 * given as triples of type, field name and label.
+	 */
+	private static Object createFactory(String name, String label, Object... fields) throws Exception {
+		Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+		Constructor<?> newAnnotation = annotationElementClass.getConstructor(Class.class, Object.class);
+		Constructor<?> newField = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+		List<Object> annotations = new ArrayList<Object>();
+		annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+		annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+		annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { CATEGORY }));
+
+		List<Object> descriptors = new ArrayList<Object>();
+		for(int i=0; i<fields.length; i+=3) {
+			Object fieldLabel = newAnnotation.newInstance(Class.forName("jdk.jfr.Label"), fields[i+2]);
+			descriptors.add(newField.newInstance(fields[i], fields[i+1], Arrays.asList(fieldLabel)));
+		}
+
+		Method create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+		return create.invoke(null, annotations, descriptors);
+	}
+
+	/**
+	 * Returns a started event for a reflective call if this call is sampled, and null otherwise.
+	 */
+	static Object beginReflectiveCall() {
+		if(!enabled || ThreadLocalRandom.current().nextInt(samplingInterval)!=0) return null;
+		return begin(reflectiveCallFactory);
+	}
+
+	static void commitReflectiveCall(Object event, Kind kind, Object target, Frame frame) {
+		if(event==null) return;
+		String callSite = frame==null ? "" : frame.getContainerMethod()+":"+frame.getLineNumber();
+		commit(event, kind.label(), describe(target), callSite);
+	}
+
+	/**
+	 * Returns a started class dump event if events are enabled, and null otherwise.
+	 */
+	public static Object beginClassDump() {
+		return enabled ? begin(classDumpFactory) : null;
+	}
+
+	public static void commitClassDump(Object event, String className, int size) {
+		if(event==null) return;
+		commit(event, className, size);
+	}
+
+	/**
+	 * Returns a started hashing event if events are enabled, and null otherwise.
+	 */
+	public static Object beginClassHashing() {
+		return enabled ? begin(classHashingFactory) : null;
+	}
+
+	public static void commitClassHashing(Object event, String className, String hashedName) {
+		if(event==null) return;
+		commit(event, className, hashedName);
+	}
+
+	private static String describe(Object target) {
+		return target instanceof Class<?> ? ReflLogger.getTypeName((Class<?>) target) : String.valueOf(target);
+	}
+
+	private static Object begin(Object factory) {
+		boolean[] busy = emitting.get();
+		if(busy[0]) return null;
+		busy[0] = true;
+		ReflLogger.enteringReflectionAPI();
+		try {
+			Object event = newEvent.invoke(factory);
+			begin.invoke(event);
+			return event;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			ReflLogger.leavingReflectionAPI();
+			busy[0] = false;
+		}
+	}
+
+	private static void commit(Object event, Object... values) {
+		boolean[] busy = emitting.get();
+		busy[0] = true;
+		ReflLogger.enteringReflectionAPI();
+		try {
+			//the event ends before its fields are set, which takes some time as well
+			end.invoke(event);
+			for(int i=0; i<values.length; i++) {
+				set.invoke(event, i, values[i]);
+			}
+			commit.invoke(event);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			ReflLogger.leavingReflectionAPI();
+			busy[0] = false;
+		}
+	}
+}
@@ -10,6 +10,9 @@
  ******************************************************************************/
 package de.bodden.tamiflex.playout.rt;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum Kind {
 
 	ClassForName("Class.forName"),
@@ -42,6 +45,14 @@ public enum Kind {
 	FieldToGenericString("Field.toGenericString"),
 	FieldToString("Field.toString");
 	
+	private static final Map<String,Kind> LABEL_TO_KIND = new HashMap<String,Kind>();
+	
+	static {
+		for(Kind k: Kind.values()) {
+			LABEL_TO_KIND.put(k.label(), k);
+		}
+	}
+	
 	private final String output;
 
 	Kind(String output) {
@@ -53,12 +64,9 @@ public enum Kind {
 	}
 	
 	public static Kind kindForLabel(String label) {
-		for(Kind k: Kind.values()) {
-			if(k.label().equals(label)) {
-				return k;
-			}
-		}
-		throw new RuntimeException("unknown kind: "+label);
+		Kind k = LABEL_TO_KIND.get(label);
+		if(k==null) throw new RuntimeException("unknown kind: "+label);
+		return k;
 	}
 	
 	@Override
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import de.bodden.tamiflex.logparser.LogParser;
+
+/**
+ * Periodically appends the log entries that are new or whose count changed since the
+ * last checkpoint to a journal next to the log file. Each journal line has the format
+ * of a line in a text log file, with the count column holding the increment since the
+ * previous checkpoint. Hence, if the program is killed, the entries it found so far
+ * survive in the journal, and are merged into the log file when the agent runs next.
+ *
+ * The log file is only ever replaced by atomically renaming a complete temporary file.
+ * While the journal is being merged, it is renamed to a "done" file first; a done file
+ * that is still present on startup means that the journal has already been merged
+ * (or that the merged log is waiting in the temporary file).
+ *
+ * Entries that mention generated classes are only written by the final checkpoint,
+ * as the hashed names of those classes are not known before the classes are dumped.
+ */
+public class LogCheckpointer {
+
+	private final File journalFile;
+
+	private Thread thread;
+
+	//set once the agent shuts down; only the final checkpoint is taken after that
+	private boolean stopped;
+
+	public LogCheckpointer(File logFile) {
+		this.journalFile = journalFile(logFile);
+	}
+
+	/**
+	 * Starts a daemon thread that takes a checkpoint every <code>intervalMillis</code> milliseconds.
+	 */
+	public void start(final long intervalMillis) {
+		thread = new Thread("TamiFlex log checkpointer") {
+			@Override
+			public void run() {
+				//reflective calls issued while checkpointing must not be logged
+				ReflLogger.enteringReflectionAPI();
+				try {
+					while(!ShutdownStatus.hasShutDown) {
+						Thread.sleep(intervalMillis);
+						checkpoint(false);
+					}
+				} catch (InterruptedException e) {
+					//stop checkpointing
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the checkpointing thread, if any. A checkpoint that is currently being taken
+	 * is completed first.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if(thread!=null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Appends all entries that are new or whose count has changed since the last checkpoint
+	 * to the journal. Entries mentioning generated classes are only included if
+	 * <code>includeGeneratedClasses</code> is set, i.e., once their hashed names are known.
+	 * This is the case for the final checkpoint, which is the only one taken after {@link #stop()}.
+	 */
+	public synchronized void checkpoint(boolean includeGeneratedClasses) {
+		if(stopped && !includeGeneratedClasses) return;
+		StringBuilder delta = new StringBuilder();
+		for(ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry> entries: ReflLogger.containerMethodToEntries.values()) {
+			for(RuntimeLogEntry entry: entries.keySet()) {
+				long count = entry.getCount();
+				if(count==entry.checkpointedCount) continue;
+				if(!includeGeneratedClasses && entry.mentionsGeneratedClass()) continue;
+
+				long increment = entry.checkpointedCount<0 ? count : count-entry.checkpointedCount;
+				PersistedLogEntry persisted = entry.toPersistedEntry();
+				delta.append(new PersistedLogEntry(persisted.getContainerMethod(), persisted.getLineNumber(), persisted.getKind(),
+						persisted.getTargetClassOrMethod(), persisted.getMetadata(), increment));
+				delta.append('\n');
+				entry.checkpointedCount = count;
+			}
+		}
+		if(delta.length()==0) return;
+
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(journalFile, true);
+			Writer w = new OutputStreamWriter(fos, BinaryLogWriter.UTF8);
+			w.write(delta.toString());
+			w.flush();
+			fos.getChannel().force(false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if(fos!=null) fos.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Takes a checkpoint and merges the journal into the given log file right away, so that
+	 * the log file contains all entries found so far, except those mentioning generated classes.
+	 */
+	public synchronized void flush(File logFile, LogFormat format) {
+		checkpoint(false);
+		if(!journalFile.exists()) return;
+		try {
+			SortedLogMerger.mergeInto(logFile, format, readEntries(journalFile).values());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the entries of the journal, where entries that occur multiple times have been
+	 * merged by summing up their counts.
+	 */
+	public synchronized Collection<PersistedLogEntry> readJournal() {
+		return readEntries(journalFile).values();
+	}
+
+	/**
+	 * Merges the journal that a previous run left behind into the given log file. Also completes
+	 * the replacement of the log file if the previous run was killed while replacing it.
+	 */
+	public static void recover(File logFile, LogFormat format) {
+		File journal = journalFile(logFile);
+		File done = doneFile(logFile);
+		File tmp = tmpFile(logFile);
+		try {
+			if(done.exists()) {
+				//journal already merged; the merged log may still be waiting in the temporary file
+				if(tmp.exists())
+					Files.move(tmp.toPath(), logFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				Files.delete(done.toPath());
+			} else if(tmp.exists()) {
+				//incomplete, as the journal was not yet marked as merged
+				Files.delete(tmp.toPath());
+			}
+			if(journal.exists()) {
+				SortedLogMerger.mergeInto(logFile, format, readEntries(journal).values());
+				System.out.println("Recovered log entries from journal "+journal.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Atomically replaces the contents of the given log file by the given (sorted) entries, written
+	 * in the given format, and deletes the journal, whose entries the log is assumed to contain.
+	 */
+	public static void replaceLogFile(File logFile, LogFormat format, Iterator<PersistedLogEntry> entries) throws IOException {
+		File tmp = tmpFile(logFile);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			LogWriter w = format.newWriter(fos);
+			while(entries.hasNext()) {
+				w.write(entries.next());
+			}
+			w.flush();
+			fos.getChannel().force(false);
+		} finally {
+			fos.close();
+		}
+		File journal = journalFile(logFile);
+		File done = doneFile(logFile);
+		boolean hadJournal = journal.exists();
+		if(hadJournal)
+			Files.move(journal.toPath(), done.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		Files.move(tmp.toPath(), logFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		if(hadJournal)
+			Files.delete(done.toPath());
+	}
+
+	private static Map<PersistedLogEntry,PersistedLogEntry> readEntries(File f) {
+		Map<PersistedLogEntry,PersistedLogEntry> entries = new HashMap<PersistedLogEntry,PersistedLogEntry>();
+		if(f.exists() && f.canRead()) {
+			try {
+				for(PersistedLogEntry entry: LogParser.parse(f, PersistedLogEntry.factory(ReflLogger.mustCount()))) {
+					add(entries, entry);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return entries;
+	}
+
+	private static void add(Map<PersistedLogEntry,PersistedLogEntry> entries, PersistedLogEntry entry) {
+		PersistedLogEntry old = entries.get(entry);
+		if(old!=null) entry = PersistedLogEntry.merge(old, entry);
+		entries.put(entry, entry);
+	}
+
+	private static File journalFile(File logFile) {
+		return new File(logFile.getPath()+".journal");
+	}
+
+	private static File doneFile(File logFile) {
+		return new File(logFile.getPath()+".journal.done");
+	}
+
+	private static File tmpFile(File logFile) {
+		return new File(logFile.getPath()+".tmp");
+	}
+}
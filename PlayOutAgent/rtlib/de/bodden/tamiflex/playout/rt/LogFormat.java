@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static de.bodden.tamiflex.playout.rt.BinaryLogWriter.UTF8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.bodden.tamiflex.logparser.LogParser;
+
+/**
+ * The formats in which log files can be written. Readers detect the format of a file
+ * by its header, so that a log can be merged into regardless of how it was written.
+ */
+public enum LogFormat {
+
+	/**
+	 * One line per entry, of the form <code>kind;target;container;line;metadata;count</code>,
+	 * encoded in UTF-8.
+	 */
+	TEXT("refl.log") {
+		@Override
+		public LogReader newReader(InputStream is, final boolean keepCounts) {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF8), BUFFER_SIZE);
+			return new LogReader() {
+				public PersistedLogEntry read() throws IOException {
+					String line;
+					do {
+						line = reader.readLine();
+					} while(line!=null && line.isEmpty());
+					return line==null ? null : PersistedLogEntry.parse(line, keepCounts);
+				}
+
+				public void close() throws IOException {
+					reader.close();
+				}
+			};
+		}
+
+		@Override
+		public LogWriter newWriter(OutputStream os) {
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF8), BUFFER_SIZE);
+			return new LogWriter() {
+				public void write(PersistedLogEntry entry) throws IOException {
+					writer.write(entry.toString());
+					writer.write('\n');
+				}
+
+				public void flush() throws IOException {
+					writer.flush();
+				}
+			};
+		}
+	},
+
+	/**
+	 * A compact binary encoding; see {@link BinaryLogWriter}.
+	 */
+	BINARY("refl.bin") {
+		@Override
+		public LogReader newReader(InputStream is, boolean keepCounts) throws IOException {
+			return new BinaryLogReader(is, keepCounts);
+		}
+
+		@Override
+		public LogWriter newWriter(OutputStream os) throws IOException {
+			return new BinaryLogWriter(os);
+		}
+	};
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final String defaultFileName;
+
+	LogFormat(String defaultFileName) {
+		this.defaultFileName = defaultFileName;
+	}
+
+	/**
+	 * Returns the name of log files in this format within the output directory.
+	 */
+	public String defaultFileName() {
+		return defaultFileName;
+	}
+
+	/**
+	 * Returns a reader for the given stream, which must contain a log in this format.
+	 * Unless <code>keepCounts</code> is set, the counts of all entries read are 0.
+	 */
+	public abstract LogReader newReader(InputStream is, boolean keepCounts) throws IOException;
+
+	public abstract LogWriter newWriter(OutputStream os) throws IOException;
+
+	/**
+	 * Opens the given log file, detecting its format.
+	 */
+	public static LogReader open(File f, boolean keepCounts) throws IOException {
+		InputStream is = new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE);
+		try {
+			return detect(is).newReader(is, keepCounts);
+		} catch (IOException e) {
+			is.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads all entries of the given log file, detecting its format. Text logs are parsed
+	 * in parallel by a {@link LogParser}.
+	 */
+	public static List<PersistedLogEntry> readAll(File f, boolean keepCounts) throws IOException {
+		InputStream is = new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE);
+		try {
+			if(detect(is)==TEXT) {
+				return LogParser.parse(f, PersistedLogEntry.factory(keepCounts));
+			}
+			List<PersistedLogEntry> entries = new ArrayList<PersistedLogEntry>();
+			LogReader reader = BINARY.newReader(is, keepCounts);
+			PersistedLogEntry entry;
+			while((entry=reader.read())!=null) {
+				entries.add(entry);
+			}
+			return entries;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Determines the format of the log in the given stream, which must be at its start and support marks.
+	 * The stream's position is unchanged.
+	 */
+	public static LogFormat detect(InputStream is) throws IOException {
+		return BinaryLogReader.hasMagic(is) ? BINARY : TEXT;
+	}
+
+	public static LogFormat forName(String name) {
+		for(LogFormat f: values()) {
+			if(f.name().equalsIgnoreCase(name.trim())) {
+				return f;
+			}
+		}
+		throw new IllegalArgumentException("unknown log format: "+name);
+	}
+}
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of a log file, in the order in which they appear in the file.
+ * Use {@link LogFormat#open(java.io.File, boolean)} to obtain a reader for a file in either format.
+ */
+public interface LogReader extends Closeable {
+
+	/**
+	 * Returns the next entry, or <code>null</code> at the end of the log.
+	 */
+	PersistedLogEntry read() throws IOException;
+}
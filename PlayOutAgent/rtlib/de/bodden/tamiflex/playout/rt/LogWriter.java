@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.IOException;
+
+/**
+ * Writes log entries in the order in which they are given. Log files must be sorted
+ * by {@link PersistedLogEntry#toKeyString()}, so callers have to pass entries in this order.
+ */
+public interface LogWriter {
+
+	void write(PersistedLogEntry entry) throws IOException;
+
+	/**
+	 * Writes out all buffered data to the underlying stream, which is not closed.
+	 */
+	void flush() throws IOException;
+}
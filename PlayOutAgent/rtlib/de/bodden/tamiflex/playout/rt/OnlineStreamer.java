@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams log lines to the Eclipse plugin in online mode. Lines are put into a bounded
+ * buffer and sent by a dedicated daemon thread, which writes all lines buffered so far
+ * in one batch and then flushes once. Hence, threads that discover new log entries
+ * never perform network I/O themselves.
+ * If the buffer is full, lines are either dropped (and counted) or the discovering
+ * thread waits for the sender to catch up, depending on the configured policy.
+ * Once the sender has stopped, for instance because the plugin went away, all further
+ * lines are dropped (and counted), so that no thread ever waits for a sender that is gone.
+ */
+public class OnlineStreamer {
+
+	//marks the end of the stream
+	private static final String END = new String("END");
+
+	private static final int MAX_BATCH_SIZE = 1024;
+
+	private final BlockingQueue<String> buffer;
+
+	private final boolean dropWhenFull;
+
+	private final Writer out;
+
+	private final AtomicLong droppedLines = new AtomicLong();
+
+	private final Thread sender;
+
+	//set once the sender has stopped; nobody will take lines from the buffer anymore
+	private volatile boolean dead;
+
+	public OnlineStreamer(OutputStream os, int capacity, boolean dropWhenFull) {
+		this.buffer = new ArrayBlockingQueue<String>(capacity);
+		this.dropWhenFull = dropWhenFull;
+		this.out = new BufferedWriter(new OutputStreamWriter(os), 1 << 16);
+		this.sender = new Thread("TamiFlex online sender") {
+			@Override
+			public void run() {
+				//reflective calls issued by the sender itself must not be logged, or it might end up waiting for itself
+				ReflLogger.enteringReflectionAPI();
+				sendUntilEnd();
+			}
+		};
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Queues the given line for sending. Drops the line if the sender has stopped, if the
+	 * buffer is full and lines are to be dropped in this case, or if the calling thread is
+	 * interrupted while waiting for space in the buffer.
+	 */
+	public void send(String line) {
+		if(dead) {
+			droppedLines.incrementAndGet();
+		} else if(dropWhenFull) {
+			if(!buffer.offer(line))
+				droppedLines.incrementAndGet();
+		} else {
+			try {
+				//wait in slices, so that we notice if the sender stops while we are waiting
+				while(!buffer.offer(line, 100, TimeUnit.MILLISECONDS)) {
+					if(dead) {
+						droppedLines.incrementAndGet();
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				droppedLines.incrementAndGet();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void sendUntilEnd() {
+		List<String> batch = new ArrayList<String>(MAX_BATCH_SIZE);
+		//number of lines of the batch that have been handled
+		int handled = 0;
+		try {
+			while(true) {
+				batch.add(buffer.take());
+				buffer.drainTo(batch, MAX_BATCH_SIZE-1);
+				for (; handled<batch.size(); handled++) {
+					String line = batch.get(handled);
+					if(line==END) {
+						handled++;
+						out.flush();
+						return;
+					}
+					out.write(line);
+					out.write('\n');
+				}
+				out.flush();
+				batch.clear();
+				handled = 0;
+			}
+		} catch (InterruptedException e) {
+			//stop sending
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			//the other end is gone; there is nobody left to send to
+			e.printStackTrace();
+		} finally {
+			dead = true;
+			//lines taken after the end, or before the sender failed, will never be sent
+			for(int i=handled; i<batch.size(); i++) {
+				if(batch.get(i)!=END) droppedLines.incrementAndGet();
+			}
+			//neither will lines still queued; this also frees waiting threads
+			String line;
+			while((line = buffer.poll())!=null) {
+				if(line!=END) droppedLines.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of lines dropped so far, because the buffer was full or the sender
+	 * had stopped.
+	 */
+	public long droppedLines() {
+		return droppedLines.get();
+	}
+
+	/**
+	 * Sends all lines queued so far and stops the sender. Returns the number of lines that
+	 * were dropped because the buffer was full.
+	 */
+	public long close() {
+		try {
+			while(!dead && !buffer.offer(END, 100, TimeUnit.MILLISECONDS)) {
+				//the sender is still draining a full buffer
+			}
+			sender.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return droppedLines.get();
+	}
+}
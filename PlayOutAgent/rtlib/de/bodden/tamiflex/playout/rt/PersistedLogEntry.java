@@ -10,8 +10,8 @@
  ******************************************************************************/
 package de.bodden.tamiflex.playout.rt;
 
-
-
+import de.bodden.tamiflex.logparser.LogEntryFactory;
+import de.bodden.tamiflex.logparser.LogParser;
 
 public class PersistedLogEntry {
 	
@@ -23,12 +23,24 @@ public class PersistedLogEntry {
 	
 	protected final String targetClassOrMethod;
 	
-	protected final int count;
+	protected final long count;
 
+	//without the estimate marker, which is not part of the entry's identity
 	protected final String metadata;
 
-	public PersistedLogEntry(String containerMethod, int lineNumber, Kind kind, String targetClassOrMethod, String metadata, int count) {
+	protected final boolean countEstimated;
+
+	/**
+	 * Creates an entry from the metadata column of a log file, which marks the count as an
+	 * estimate if it contains {@link CallSampler#ESTIMATE}.
+	 */
+	public PersistedLogEntry(String containerMethod, int lineNumber, Kind kind, String targetClassOrMethod, String metadata, long count) {
+		this(containerMethod, lineNumber, kind, targetClassOrMethod, withoutEstimate(metadata), hasEstimate(metadata), count);
+	}
+
+	public PersistedLogEntry(String containerMethod, int lineNumber, Kind kind, String targetClassOrMethod, String metadata, boolean countEstimated, long count) {
 		this.metadata = metadata;
+		this.countEstimated = countEstimated;
 		if(lineNumber<0) lineNumber = -1;
 		this.containerMethod = containerMethod;
 		this.lineNumber = lineNumber;
@@ -39,7 +51,15 @@ public class PersistedLogEntry {
 	
 	@Override
 	public String toString() {
-		return kind.label() + ";" + targetClassOrMethod + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + metadata + ";" + (count>0?count:"");
+		return kind.label() + ";" + targetClassOrMethod + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + getMetadata() + ";" + (count>0?count:"");
+	}
+
+	/**
+	 * Returns this entry's identity, i.e., its line in the log file up to but excluding the
+	 * count, yet without the estimate marker. Log files are sorted by this string.
+	 */
+	public String toKeyString() {
+		return kind.label() + ";" + targetClassOrMethod + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + metadata + ";";
 	}
 
 	@Override
@@ -97,7 +117,7 @@ public class PersistedLogEntry {
 		return true;
 	}
 
-	public int getCount() {
+	public long getCount() {
 		return count;
 	}
 
@@ -113,21 +133,86 @@ public class PersistedLogEntry {
 		return kind;
 	}
 	
+	/**
+	 * Returns the metadata column of this entry's line in the log file, which includes
+	 * the estimate marker if the count is an estimate.
+	 */
 	public String getMetadata() {
-		return metadata;
+		if(!countEstimated) return metadata;
+		return metadata==null || metadata.isEmpty() ? CallSampler.ESTIMATE : metadata+","+CallSampler.ESTIMATE;
+	}
+
+	/**
+	 * Tells whether the count of this entry is an estimate, see {@link CallSampler}.
+	 */
+	public boolean isCountEstimated() {
+		return countEstimated;
 	}
 
 	public String getTargetClassOrMethod() {
 		return targetClassOrMethod;
 	}
 
+	private static final LogEntryFactory<PersistedLogEntry> WITH_COUNTS = new Factory(true);
+	
+	private static final LogEntryFactory<PersistedLogEntry> WITHOUT_COUNTS = new Factory(false);
+	
+	private static class Factory implements LogEntryFactory<PersistedLogEntry> {
+		
+		private final boolean keepCounts;
+		
+		Factory(boolean keepCounts) {
+			this.keepCounts = keepCounts;
+		}
+		
+		public PersistedLogEntry create(String kind, String target, String containerMethod, int lineNumber, String metadata, long count) {
+			return new PersistedLogEntry(containerMethod, lineNumber, Kind.kindForLabel(kind), target, metadata, keepCounts ? count : 0);
+		}
+	}
+	
+	/**
+	 * Returns a factory for parsing text logs with a {@link LogParser}. Unless <code>keepCounts</code>
+	 * is set, the counts of the entries created are 0.
+	 */
+	public static LogEntryFactory<PersistedLogEntry> factory(boolean keepCounts) {
+		return keepCounts ? WITH_COUNTS : WITHOUT_COUNTS;
+	}
+	
+	/**
+	 * Parses a line of a text log. Unless <code>keepCount</code> is set, the count of the returned entry is 0.
+	 */
+	public static PersistedLogEntry parse(String line, boolean keepCount) {
+		return LogParser.parseLine(line, factory(keepCount));
+	}
+
 	public static PersistedLogEntry merge(PersistedLogEntry e1, PersistedLogEntry e2) {
 		assert e1.containerMethod.equals(e2.containerMethod);
 		assert e1.kind.equals(e2.kind);
 		assert e1.lineNumber==e2.lineNumber;
 		assert e1.targetClassOrMethod.equals(e2.targetClassOrMethod);
 		assert e1.metadata.equals(e2.metadata);
-		return new PersistedLogEntry(e1.containerMethod, e1.lineNumber, e1.kind, e1.targetClassOrMethod, e1.metadata, e1.count + e2.count);
+		//the sum is an estimate if any of its parts is
+		return new PersistedLogEntry(e1.containerMethod, e1.lineNumber, e1.kind, e1.targetClassOrMethod, e1.metadata,
+				e1.countEstimated || e2.countEstimated, e1.count + e2.count);
+	}
+
+	private static boolean hasEstimate(String metadata) {
+		if(metadata==null) return false;
+		for(String item: metadata.split(",")) {
+			if(item.equals(CallSampler.ESTIMATE)) return true;
+		}
+		return false;
+	}
+
+	private static String withoutEstimate(String metadata) {
+		if(!hasEstimate(metadata)) return metadata;
+		StringBuilder result = new StringBuilder();
+		for(String item: metadata.split(",")) {
+			if(item.equals(CallSampler.ESTIMATE)) continue;
+			if(result.length()>0) result.append(',');
+			result.append(item);
+		}
+		return result.toString();
 	}
 
 //	public static LogEntry getEntryWithHashedNames(LogEntry e) {
@@ -11,223 +11,393 @@
 package de.bodden.tamiflex.playout.rt;
 import static de.bodden.tamiflex.playout.rt.ShutdownStatus.hasShutDown;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.bodden.tamiflex.playout.rt.FrameResolver.Frame;
+import de.bodden.tamiflex.playout.rt.TargetCache.FieldTarget;
+import de.bodden.tamiflex.playout.rt.TargetCache.MethodTarget;
+import de.bodden.tamiflex.rt.StackFrames;
 
 public class ReflLogger {
 	
-	//holds hashed names
-	protected static Map<PersistedLogEntry,PersistedLogEntry> oldContainerMethodToEntries = new HashMap<PersistedLogEntry,PersistedLogEntry>();
-
-	//holds actual names
-	protected static Map<String,Map<RuntimeLogEntry,RuntimeLogEntry>> containerMethodToEntries = new HashMap<String, Map<RuntimeLogEntry,RuntimeLogEntry>>();
+	/**
+	 * Holds actual names. This table is read and updated without any global lock:
+	 * the outer map shards entries by container method and lookups only fall back
+	 * to putIfAbsent when an entry has not been seen before. Hence, reflective calls
+	 * on different threads never block each other on the common path.
+	 */
+	protected static ConcurrentMap<String,ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry>> containerMethodToEntries = new ConcurrentHashMap<String, ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry>>(1024, 0.75f, 64);
 	
+	static {
+		//set up stack access now, i.e., while the agent is being initialized
+		StackFrames.initialize();
+	}
+
 	//is initialized by the agent
 	private static File logFile;
 	
+	//is initialized by the agent
+	private static LogFormat logFormat = LogFormat.TEXT;
+	
 	//is initialized by the agent
 	private static boolean doCount;
 
 	//is initialized by the agent
 	private static boolean useDeclaredTypes;
 
-	//is initialized by the agent
-	private static PrintWriter newLineWriter = new PrintWriter(new OutputStream() {
-		
-		@Override
-		public void write(int b) throws IOException {
-			//by default, do nothing
-		}
-	});
+	//is initialized by the agent; number of callers recorded with each entry, see CallingContext
+	private static int contextDepth;
+
+	//frames skipped at the top of the stack when looking for the traced call
+	private static final Set<String> OWN_CLASS_NAMES = Collections.singleton(ReflLogger.class.getName());
+
+	//is initialized by the agent if checkpointing is enabled; null otherwise
+	private static LogCheckpointer checkpointer;
+
+	//is initialized by the agent in online mode; null otherwise
+	private static volatile OnlineStreamer onlineStreamer;
+	
+	//checked first by every hook, so that disabled hooks cost a single read; see setEnabled(boolean)
+	private static volatile boolean enabled = true;
+	
+	//is initialized by the agent; 0 means no limit
+	private static int maxEntries;
+	
+	private static final AtomicInteger numEntries = new AtomicInteger();
 	
-	/** This field is used to guard against infinite recursion during logging. */
-	private static ThreadLocal<Integer> nestingDepth = new ThreadLocal<Integer>() {
+	//lines dropped by online streamers that have been closed already
+	private static long droppedOnlineLines;
+	
+	/**
+	 * This field is used to guard against infinite recursion during logging.
+	 * The depth is kept in a mutable one-element array, so that entering and leaving
+	 * the runtime is a single thread-local lookup and never allocates. The array is
+	 * the only per-thread state of the runtime; it goes away with its thread, which
+	 * matters for programs that start millions of (virtual) threads.
+	 */
+	private static final ThreadLocal<int[]> nestingDepth = new ThreadLocal<int[]>() {
 		@Override
-		protected Integer initialValue() {
-			return 0;
+		protected int[] initialValue() {
+			return new int[1];
 		}
 	};
 	
 	public static void enteringReflectionAPI() {
-		nestingDepth.set(nestingDepth.get()+1);
+		nestingDepth.get()[0]++;
 	}
 
-	private static void leavingReflectionAPI() {
-		nestingDepth.set(nestingDepth.get()-1);
+	public static void leavingReflectionAPI() {
+		nestingDepth.get()[0]--;
 	}
 	
-	private static void logAndIncrementTargetClassEntry(String containerMethod, int lineNumber, Kind kind, String targetClass) {
+	private static void logAndIncrementTargetClassEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int targetClass, int weight) {
 		if(hasShutDown) return;
-		TargetClassLogEntry newEntry = new TargetClassLogEntry(containerMethod, lineNumber, kind, targetClass);
-		RuntimeLogEntry entry;
-		synchronized (ReflLogger.class) {
-			entry = pullOrCreateEntry(containerMethod, newEntry);
-			if(doCount)
-				entry.incrementCounter();		
-		}
+		TargetClassLogEntry newEntry = new TargetClassLogEntry(containerMethod, lineNumber, context, kind, targetClass);
+		RuntimeLogEntry entry = pullOrCreateEntry(containerMethod, newEntry);
+		if(doCount)
+			entry.incrementCounter(weight);
 	}
 
-	private static void logAndIncrementTargetMethodEntry(String containerMethod, int lineNumber, Kind kind, String declaringClass, String returnType, String name, boolean isAccessible, String... paramTypes) {
+	private static void logAndIncrementTargetMethodEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int declaringClass, int returnType, int name, boolean isAccessible, int weight, int... paramTypes) {
 		if(hasShutDown) return;
-		TargetMethodLogEntry newEntry = new TargetMethodLogEntry(containerMethod, lineNumber, kind, declaringClass, returnType, name, isAccessible, paramTypes);
-		RuntimeLogEntry entry;
-		synchronized (ReflLogger.class) {
-			entry = pullOrCreateEntry(containerMethod, newEntry);
-			if(doCount)
-				entry.incrementCounter();
-		}
+		TargetMethodLogEntry newEntry = new TargetMethodLogEntry(containerMethod, lineNumber, context, kind, declaringClass, returnType, name, isAccessible, paramTypes);
+		RuntimeLogEntry entry = pullOrCreateEntry(containerMethod, newEntry);
+		if(doCount)
+			entry.incrementCounter(weight);
 	}
 	
-    private static void logAndIncrementTargetArrayEntry(String containerMethod, int lineNumber, Kind kind, String componentType, int... dimensions) {
+    private static void logAndIncrementTargetArrayEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int componentType, int... dimensions) {
         if(hasShutDown) return;
-        TargetArrayLogEntry newEntry = new TargetArrayLogEntry(containerMethod, lineNumber, kind, componentType, dimensions);
-        RuntimeLogEntry entry;
-        synchronized (ReflLogger.class) {
-            entry = pullOrCreateEntry(containerMethod, newEntry);
-            if(doCount)
-                entry.incrementCounter();
-        }
+        TargetArrayLogEntry newEntry = new TargetArrayLogEntry(containerMethod, lineNumber, context, kind, componentType, dimensions);
+        RuntimeLogEntry entry = pullOrCreateEntry(containerMethod, newEntry);
+        if(doCount)
+            entry.incrementCounter();
     }
     
-    private static void logAndIncrementTargetFieldEntry(String containerMethod, int lineNumber, Kind kind, String declaringClass, String fieldType, String name, boolean isAccessible) {
+    private static void logAndIncrementTargetFieldEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int declaringClass, int fieldType, int name, boolean isAccessible, int weight) {
         if(hasShutDown) return;
-        TargetFieldLogEntry newEntry = new TargetFieldLogEntry(containerMethod, lineNumber, kind, declaringClass, fieldType, name, isAccessible);
-        RuntimeLogEntry entry;
-        synchronized (ReflLogger.class) {
-            entry = pullOrCreateEntry(containerMethod, newEntry);
-            if(doCount)
-                entry.incrementCounter();       
-        }
+        TargetFieldLogEntry newEntry = new TargetFieldLogEntry(containerMethod, lineNumber, context, kind, declaringClass, fieldType, name, isAccessible);
+        RuntimeLogEntry entry = pullOrCreateEntry(containerMethod, newEntry);
+        if(doCount)
+            entry.incrementCounter(weight);
     }
 
-	private static RuntimeLogEntry pullOrCreateEntry(String containerMethod, RuntimeLogEntry newEntry) {
-		Map<RuntimeLogEntry,RuntimeLogEntry> entries = containerMethodToEntries.get(containerMethod);
+	static RuntimeLogEntry pullOrCreateEntry(int containerMethodId, RuntimeLogEntry newEntry) {
+		//the symbol is canonical, hence its hash code is cached
+		String containerMethod = SymbolTable.symbol(containerMethodId);
+		ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry> entries = containerMethodToEntries.get(containerMethod);
 		if(entries==null) {
-			entries = new HashMap<RuntimeLogEntry,RuntimeLogEntry>();
-			containerMethodToEntries.put(containerMethod, entries);
+			ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry> newEntries = new ConcurrentHashMap<RuntimeLogEntry,RuntimeLogEntry>(4, 0.75f, 4);
+			entries = containerMethodToEntries.putIfAbsent(containerMethod, newEntries);
+			if(entries==null) entries = newEntries;
 		}
+		//plain get first; only entries not seen before need to go through putIfAbsent
 		RuntimeLogEntry sameEntry = entries.get(newEntry);
 		if(sameEntry==null) {
-			//found a new entry
-			sameEntry = newEntry;
-			entries.put(newEntry,newEntry);
-			newLineWriter.println(newEntry.toString());
-			newLineWriter.flush();			
+			sameEntry = entries.putIfAbsent(newEntry, newEntry);
+			if(sameEntry==null) {
+				//found a new entry; only the thread that won the race reports it
+				sameEntry = newEntry;
+				OnlineStreamer streamer = onlineStreamer;
+				if(streamer!=null)
+					streamer.send(newEntry.toString());
+				int n = numEntries.incrementAndGet();
+				if(maxEntries>0 && n==maxEntries) {
+					enabled = false;
+					System.err.println("TamiFlex: logged "+maxEntries+" distinct entries; logging is now disabled.");
+				}
+			}
 		}
 		return sameEntry;
 	}
 
+	/**
+	 * Without counting, a target that has already been logged at the same frame cannot
+	 * contribute anything new to the log. This check lets hooks return before creating any
+	 * log entry; it only involves canonical objects and hence allocates nothing. It needs the
+	 * frame, though, so the hooks of the JDK methods still walk the stack for every call.
+	 */
+	private static boolean alreadyLogged(Frame frame, Kind kind, boolean isAccessible, Object target) {
+		return !doCount && frame.hasLogged(kind, isAccessible, target);
+	}
+
+	/**
+	 * Returns by how much to increment the count of the entry for this call. With sampling,
+	 * this is 0 for calls that are skipped, see {@link CallSampler}; the first call of a target
+	 * at a frame is always counted exactly.
+	 */
+	private static int countWeight(Frame frame, Kind kind, boolean isAccessible, Object target) {
+		if(!doCount || !CallSampler.isSampled(kind) || !frame.hasLogged(kind, isAccessible, target)) return 1;
+		return CallSampler.weight(kind);
+	}
+
+	private static void markLogged(Frame frame, Kind kind, boolean isAccessible, Object target) {
+		if(!doCount || CallSampler.isSampled(kind)) frame.markLogged(kind, isAccessible, target);
+	}
+
 	public static void classMethodInvoke(Class<?> c, Kind classMethodKind) {
-		if(isReentrant()) return;
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
 		try {
-			StackTraceElement frame = getInvokingFrame();
-			logAndIncrementTargetClassEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),classMethodKind,c.getName());
+			frame = getInvokingFrame();
+			logClassMethodInvoke(frame, c, classMethodKind);
 		} finally {
+			JfrEvents.commitReflectiveCall(event, classMethodKind, c, frame);
+			HookStatistics.stop(classMethodKind, start);
 			leavingReflectionAPI();
 		}
 	}
 
 	public static void classForName(String typeName) {
-		if(isReentrant()) return;
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
 		try {
-			StackTraceElement frame = getInvokingFrame();
-			logAndIncrementTargetClassEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassForName,handleArrayTypes(typeName));
+			frame = getInvokingFrame();
+			logClassForName(frame, typeName);
 		} finally {
+			JfrEvents.commitReflectiveCall(event, Kind.ClassForName, typeName, frame);
+			HookStatistics.stop(Kind.ClassForName, start);
 			leavingReflectionAPI();
 		}
 	}
 
 	public static void constructorMethodInvoke(Constructor<?> c, Kind constructorMethodKind) {		
-		if(isReentrant()) return;
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
 		try {
-			StackTraceElement frame = getInvokingFrame();
-			String[] paramTypes = classesToTypeNames(c.getParameterTypes());
-			logAndIncrementTargetMethodEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),constructorMethodKind,c.getDeclaringClass().getName(),"void","<init>", c.isAccessible(), paramTypes);
+			frame = getInvokingFrame();
+			logConstructorMethodInvoke(frame, c, constructorMethodKind);
 		} finally {
+			JfrEvents.commitReflectiveCall(event, constructorMethodKind, c, frame);
+			HookStatistics.stop(constructorMethodKind, start);
 			leavingReflectionAPI();
 		}
 	}
 
-	private static String[] classesToTypeNames(Class<?>[] params) {
-		String[] paramTypes = new String[params.length];
-		int i=0;
-		for (Class<?> type : params) {
-			paramTypes[i]=getTypeName(type);
-			i++;
-		}
-		return paramTypes;
-	}
-	
-
 	public static void methodMethodInvoke(Object receiver, Method m, Kind methodKind) {
 		methodMethodInvoke(receiver, m, methodKind, null);
 	}
 	
 	public static void methodMethodInvoke(Object receiver, Method m, Kind methodKind, Class<?> getMethodReceiverClass) {
-		if(isReentrant()) return;
-		StackTraceElement frame = getInvokingFrame();
-				
-		//There appears to be a call to Method.getModifiers() issued by the
-		//VM in order to call the program's main method.
-		//For this call there is no calling context and hence no frame.
-		//We here simply ignore this call, returning early in this case.
-		if(frame==null) {
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
+		try {
+			frame = getInvokingFrame();
+			
+			//There appears to be a call to Method.getModifiers() issued by the
+			//VM in order to call the program's main method.
+			//For this call there is no calling context and hence no frame.
+			//We here simply ignore this call, returning early in this case.
+			if(frame==null) return;
+			
+			logMethodMethodInvoke(frame, receiver, m, methodKind, getMethodReceiverClass);
+		} finally {
+			JfrEvents.commitReflectiveCall(event, methodKind, m, frame);
+			HookStatistics.stop(methodKind, start);
+			leavingReflectionAPI();
+		}
+	}
+	
+	//hooks for call-site mode, see CallSites; classForNameAt is called right after Class.forName returned,
+	//the others right before the respective call, so that calls that throw are logged, too; as the call
+	//has not been checked yet, these hooks ignore arguments for which the call is bound to fail
+	
+	public static void classForNameAt(Class<?> c, int callSite) {
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
+		try {
+			frame = getCallSiteFrame(callSite);
+			logClassForName(frame, c.getName());
+		} finally {
+			JfrEvents.commitReflectiveCall(event, Kind.ClassForName, c, frame);
+			HookStatistics.stop(Kind.ClassForName, start);
+			leavingReflectionAPI();
+		}
+	}
+	
+	public static void classNewInstanceAt(Class<?> c, int callSite) {
+		if(!enabled || c==null || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
+		try {
+			frame = getCallSiteFrame(callSite);
+			logClassMethodInvoke(frame, c, Kind.ClassNewInstance);
+		} finally {
+			JfrEvents.commitReflectiveCall(event, Kind.ClassNewInstance, c, frame);
+			HookStatistics.stop(Kind.ClassNewInstance, start);
+			leavingReflectionAPI();
+		}
+	}
+	
+	public static void constructorNewInstanceAt(Constructor<?> c, int callSite) {
+		if(!enabled || c==null || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
+		try {
+			frame = getCallSiteFrame(callSite);
+			logConstructorMethodInvoke(frame, c, Kind.ConstructorNewInstance);
+		} finally {
+			JfrEvents.commitReflectiveCall(event, Kind.ConstructorNewInstance, c, frame);
+			HookStatistics.stop(Kind.ConstructorNewInstance, start);
+			leavingReflectionAPI();
+		}
+	}
+	
+	public static void methodInvokeAt(Method m, Object receiver, int callSite) {
+		if(!enabled || m==null || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
+		try {
+			//the call will throw without invoking anything
+			if(!Modifier.isStatic(m.getModifiers()) && !m.getDeclaringClass().isInstance(receiver)) return;
+			frame = getCallSiteFrame(callSite);
+			logMethodMethodInvoke(frame, receiver, m, Kind.MethodInvoke, null);
+		} finally {
+			JfrEvents.commitReflectiveCall(event, Kind.MethodInvoke, m, frame);
+			HookStatistics.stop(Kind.MethodInvoke, start);
 			leavingReflectionAPI();
-			return;		
 		}
-				
+	}
+	
+	private static void logClassMethodInvoke(Frame frame, Class<?> c, Kind classMethodKind) {
+		//frames remember the class by name, which does not keep the class alive; Class caches its name
+		String className = c.getName();
+		if(!frame.isAccepted() || alreadyLogged(frame,classMethodKind,false,className)) return;
+		int targetClass = SymbolTable.id(handleArrayTypes(className));
+		if(!CallSiteFilter.acceptsTarget(targetClass)) return;
+		int weight = countWeight(frame,classMethodKind,false,className);
+		if(weight==0) return;
+		logAndIncrementTargetClassEntry(frame.getContainerMethodId(),frame.getLineNumber(),frame.getContext(),classMethodKind,targetClass,weight);
+		markLogged(frame,classMethodKind,false,className);
+	}
+
+	private static void logClassForName(Frame frame, String typeName) {
+		if(!frame.isAccepted() || alreadyLogged(frame,Kind.ClassForName,false,typeName)) return;
+		int targetClass = SymbolTable.id(handleArrayTypes(typeName));
+		if(!CallSiteFilter.acceptsTarget(targetClass)) return;
+		int weight = countWeight(frame,Kind.ClassForName,false,typeName);
+		if(weight==0) return;
+		logAndIncrementTargetClassEntry(frame.getContainerMethodId(),frame.getLineNumber(),frame.getContext(),Kind.ClassForName,targetClass,weight);
+		markLogged(frame,Kind.ClassForName,false,typeName);
+	}
+
+	private static void logConstructorMethodInvoke(Frame frame, Constructor<?> c, Kind constructorMethodKind) {
+		if(!frame.isAccepted()) return;
+		MethodTarget target = TargetCache.constructor(c);
+		boolean isAccessible = c.isAccessible();
+		if(alreadyLogged(frame,constructorMethodKind,isAccessible,target) || !CallSiteFilter.acceptsTarget(target.declaringClass)) return;
+		int weight = countWeight(frame,constructorMethodKind,isAccessible,target);
+		if(weight==0) return;
+		logAndIncrementTargetMethodEntry(frame.getContainerMethodId(),frame.getLineNumber(),frame.getContext(),constructorMethodKind,target.declaringClass,target.returnType,target.name, isAccessible, weight, target.paramTypes);
+		markLogged(frame,constructorMethodKind,isAccessible,target);
+	}
+
+	private static void logMethodMethodInvoke(Frame frame, Object receiver, Method m, Kind methodKind, Class<?> getMethodReceiverClass) {
+		if(!frame.isAccepted()) return;
 		Class<?> receiverClass = methodKind!=Kind.MethodInvoke || Modifier.isStatic(m.getModifiers())
 		  ? m.getDeclaringClass() : receiver.getClass();
 		try {
-			//resolve virtual call
-			Method resolved = null;
-			Class<?> c = receiverClass;
-			do {
-				try {
-					resolved = c.getDeclaredMethod(m.getName(), m.getParameterTypes());
-				} catch(NoSuchMethodException e) {
-					c = c.getSuperclass();
-				}				
-			} while(resolved==null && c!=null);
-			if(resolved==null) {
+			MethodTarget target = TargetCache.resolvedMethod(receiverClass, m);
+			if(target==null) {
 				Error error = new Error("Method not found : "+m+" in class "+receiverClass+" and super classes.");
 				error.printStackTrace();
+				return;
 			}
 			
-			String[] paramTypes = classesToTypeNames(resolved.getParameterTypes());
+			//with declared types, Class.getMethod entries also depend on the receiver of getMethod, which the target does not capture
+			boolean isAccessible = m.isAccessible();
+			boolean targetIdentifiesEntry = !useDeclaredTypes || methodKind!=Kind.ClassGetMethod;
+			if(targetIdentifiesEntry && alreadyLogged(frame,methodKind,isAccessible,target)) return;
 			
-			String className = resolved.getDeclaringClass().getName();
+			int className = target.declaringClass;
 			if (useDeclaredTypes) {
 				if (methodKind==Kind.MethodInvoke && !Modifier.isStatic(m.getModifiers()))
-					className = receiver.getClass().getName();
+					className = SymbolTable.id(receiver.getClass().getName());
 				else if(methodKind==Kind.ClassGetMethod) {
-					className = getMethodReceiverClass.getName();
+					className = SymbolTable.id(getMethodReceiverClass.getName());
 				}
 			} 
+			if(!CallSiteFilter.acceptsTarget(className)) return;
+			int weight = targetIdentifiesEntry ? countWeight(frame,methodKind,isAccessible,target) : 1;
+			if(weight==0) return;
 			
-			logAndIncrementTargetMethodEntry(frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),methodKind,className,getTypeName(resolved.getReturnType()),resolved.getName(), m.isAccessible(), paramTypes);
+			logAndIncrementTargetMethodEntry(frame.getContainerMethodId(),frame.getLineNumber(),frame.getContext(),methodKind,className,target.returnType,target.name, isAccessible, weight, target.paramTypes);
+			if(targetIdentifiesEntry) markLogged(frame,methodKind,isAccessible,target);
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			leavingReflectionAPI();
 		}
 	}
 	
@@ -236,18 +406,27 @@ public class ReflLogger {
     }
    
    public static void arrayMultiNewInstance(Class<?> componentType, int... dimensions) {
-	   if(isReentrant()) return;
+	   if(!enabled || isReentrant()) return;
+	   long start = HookStatistics.start();
+	   Object event = JfrEvents.beginReflectiveCall();
+	   Frame frame = null;
        try {
-           StackTraceElement frame = getInvokingFrame();
+           frame = getInvokingFrame();
+           if(!frame.isAccepted()) return;
+           int componentTypeName = SymbolTable.id(getTypeName(componentType));
+           if(!CallSiteFilter.acceptsTarget(componentTypeName)) return;
            logAndIncrementTargetArrayEntry(
-                   frame.getClassName()+"."+frame.getMethodName(),
+                   frame.getContainerMethodId(),
                    frame.getLineNumber(),
+                   frame.getContext(),
                    Kind.ArrayNewInstance,
-                   getTypeName(componentType),
+                   componentTypeName,
                    dimensions);
        } catch (Exception e) {
            e.printStackTrace();
        } finally {
+    	   JfrEvents.commitReflectiveCall(event, Kind.ArrayNewInstance, componentType, frame);
+    	   HookStatistics.stop(Kind.ArrayNewInstance, start);
     	   leavingReflectionAPI();
        }
    }
@@ -257,22 +436,39 @@ public class ReflLogger {
 	}
 	
 	public static void fieldMethodInvoke(Field f, Kind fieldMethodKind, Class<?> getFieldReceiverClass) {
-		if(isReentrant()) return;
+		if(!enabled || isReentrant()) return;
+		long start = HookStatistics.start();
+		Object event = JfrEvents.beginReflectiveCall();
+		Frame frame = null;
 	    try {
-	        StackTraceElement frame = getInvokingFrame();
-	        Class<?> fieldClass = (useDeclaredTypes && fieldMethodKind==Kind.ClassGetField) ?
-	        		getFieldReceiverClass : f.getDeclaringClass();
+	        frame = getInvokingFrame();
+	        if(!frame.isAccepted()) return;
+	        FieldTarget target = TargetCache.field(f);
+	        boolean isAccessible = f.isAccessible();
+	        //with declared types, Class.getField entries also depend on the receiver of getField, which the target does not capture
+	        boolean targetIdentifiesEntry = !useDeclaredTypes || fieldMethodKind!=Kind.ClassGetField;
+	        if(targetIdentifiesEntry && alreadyLogged(frame,fieldMethodKind,isAccessible,target)) return;
+	        int fieldClass = (useDeclaredTypes && fieldMethodKind==Kind.ClassGetField) ?
+	        		SymbolTable.id(getTypeName(getFieldReceiverClass)) : target.declaringClass;
+	        if(!CallSiteFilter.acceptsTarget(fieldClass)) return;
+	        int weight = targetIdentifiesEntry ? countWeight(frame,fieldMethodKind,isAccessible,target) : 1;
+	        if(weight==0) return;
 			logAndIncrementTargetFieldEntry(
-	                frame.getClassName()+"."+frame.getMethodName(),
+	                frame.getContainerMethodId(),
 	                frame.getLineNumber(),
+	                frame.getContext(),
 	                fieldMethodKind,
-	                getTypeName(fieldClass),
-	                getTypeName(f.getType()),
-	                f.getName(),
-	                f.isAccessible());
+	                fieldClass,
+	                target.fieldType,
+	                target.name,
+	                isAccessible,
+	                weight);
+	        if(targetIdentifiesEntry) markLogged(frame,fieldMethodKind,isAccessible,target);
 	    } catch (Exception e) {
 	        e.printStackTrace();
 	    } finally {
+			JfrEvents.commitReflectiveCall(event, fieldMethodKind, f, frame);
+			HookStatistics.stop(fieldMethodKind, start);
 			leavingReflectionAPI();
 	    }	    
 	}
@@ -280,17 +476,17 @@ public class ReflLogger {
     private static boolean isReentrant() {
     	//this method is called at every entry point to
     	//the TamiFlex runtime; at this point we are entering the reflection API
-    	enteringReflectionAPI();
+    	int[] depth = nestingDepth.get();
+    	depth[0]++;
     	
     	//check if we have a recursive call caused by TamiFlex itself;
     	//this is the case if depth is >1
-    	Integer depth = nestingDepth.get();
-    	if(depth>1) {
+    	if(depth[0]>1) {
     		
     		//by convention, when this method returns true,
     		//we will be leaving the TamiFlex runtime (callers must    		
     		//return immediately); hence we here flag that we leave the API
-    		leavingReflectionAPI();
+    		depth[0]--;
     		return true;
     	} else {
     		return false;
@@ -342,7 +538,7 @@ public class ReflLogger {
         return className;
     }
 
-	private static String getTypeName(Class<?> type) {
+	static String getTypeName(Class<?> type) {
 		//copied from java.lang.reflect.Field.getTypeName(Class)
 		if (type.isArray()) {
 		    try {
@@ -367,132 +563,263 @@ public class ReflLogger {
 	 * Returns the stack frame two frames above any frame related
 	 * to this class. (The frame just above is the call we are tracing,
 	 * but we want to return the invoking frame, hence two frames above.)
+	 * Only the frames needed are materialized.
 	 */
-	private static StackTraceElement getInvokingFrame() {
-		StackTraceElement[] stackTrace = new Exception().getStackTrace();
-		StackTraceElement outerFrame = null;		
-		boolean outside = false;
-		for (StackTraceElement frame : stackTrace) {
-			String c = frame.getClassName();
-			if(!outside) {
-				if (!c.equals(ReflLogger.class.getName())) {
-					outside = true;
-					continue;
-				}
-			} else {
-				outerFrame = frame;
-				break;
-			}
+	private static Frame getInvokingFrame() {
+		//the traced call itself, its caller, and the caller's context
+		StackFrames frames = new StackFrames(OWN_CLASS_NAMES, 2+contextDepth);
+		StackTraceElement element = frames.element(1);
+		if(element==null) return null;
+		Frame frame = FrameResolver.frameFor(element);
+		return contextDepth>0 ? inContext(frame, frames, 2) : frame;
+	}
+
+	/**
+	 * Returns the frame of the given call site in call-site mode. Only if contexts are
+	 * recorded does this walk the stack.
+	 */
+	private static Frame getCallSiteFrame(int callSite) {
+		Frame frame = CallSites.frame(callSite);
+		if(contextDepth==0) return frame;
+		//the hook is called by the container method itself
+		StackFrames frames = new StackFrames(OWN_CLASS_NAMES, 1+contextDepth);
+		return inContext(frame, frames, 1);
+	}
+
+	/**
+	 * Returns the frame in the context of at most {@link #contextDepth} callers,
+	 * the innermost of which is at index <code>firstCaller</code>.
+	 */
+	private static Frame inContext(Frame frame, StackFrames frames, int firstCaller) {
+		CallingContext context = CallingContext.ROOT;
+		StackTraceElement element;
+		for(int i=0; i<contextDepth && (element = frames.element(firstCaller+i))!=null; i++) {
+			context = context.child(FrameResolver.frameFor(element));
 		}
-		return outerFrame;
+		return frame.inContext(context);
 	}
 	
 	public static synchronized void writeLogfileToDisk(boolean verbose, int newClasses) {
-		Set<PersistedLogEntry> mergedEntries = mergeOldAndNewLog(verbose, newClasses);
-		//printStatistics();
-		try {
-			PrintWriter pw = new PrintWriter(logFile);
-
-			List<String> lines = new ArrayList<String>();
-			
-			for (PersistedLogEntry entry : mergedEntries) {
-				lines.add(entry.toString());
-			}
-			
-			Collections.sort(lines);
-			
-			for (String line : lines) {
-				pw.println(line);
+		List<PersistedLogEntry> newEntries = mergeLogfile();
+		if(newEntries!=null) {
+			printSummary(verbose, newClasses, newEntries);
+		}
+	}
+	
+	/**
+	 * Merges this run's entries into the log file, and returns the entries that were not in the
+	 * log before, or <code>null</code> if the log could not be written. The names of generated
+	 * classes must have been hashed before; this can run while the classes are being written.
+	 */
+	public static synchronized List<PersistedLogEntry> mergeLogfile() {
+		Collection<PersistedLogEntry> newLog;
+		if(checkpointer!=null) {
+			//this run's entries are all in the journal once we flushed the last delta
+			checkpointer.stop();
+			checkpointer.checkpoint(true);
+			newLog = checkpointer.readJournal();
+		} else {
+			newLog = new ArrayList<PersistedLogEntry>();
+			for(Map<RuntimeLogEntry,RuntimeLogEntry> values: containerMethodToEntries.values()) {
+				for(RuntimeLogEntry newLogEntry: values.keySet()) {
+					newLog.add(newLogEntry.toPersistedEntry());
+				}
 			}
-			pw.flush();
-			pw.close();
-		} catch (FileNotFoundException e) {
+		}
+		try {
+			return SortedLogMerger.mergeInto(logFile, logFormat, newLog);
+		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}		
 	}
 	
+	/**
+	 * Starts {@link #mergeLogfile()} on a thread of its own and returns its result.
+	 */
+	public static Future<List<PersistedLogEntry>> startMergingLogfile() {
+		FutureTask<List<PersistedLogEntry>> merge = new FutureTask<List<PersistedLogEntry>>(new Callable<List<PersistedLogEntry>>() {
+			public List<PersistedLogEntry> call() {
+				return mergeLogfile();
+			}
+		});
+		new Thread(merge, "TamiFlex log writer").start();
+		return merge;
+	}
+	
+	/**
+	 * Merges the entries found so far into the log file while the program keeps running.
+	 * Entries mentioning generated classes are left for the final write, see {@link LogCheckpointer}.
+	 */
+	public static synchronized void flushLogfile() {
+		if(checkpointer==null) {
+			//a checkpointer without a thread; it tracks what has been flushed already
+			checkpointer = new LogCheckpointer(logFile);
+		}
+		checkpointer.flush(logFile, logFormat);
+	}
+	
+	static List<PersistedLogEntry> sortedEntries(Collection<PersistedLogEntry> entries) {
+		List<PersistedLogEntry> sorted = new ArrayList<PersistedLogEntry>(entries);
+		Collections.sort(sorted, new Comparator<PersistedLogEntry>() {
+			public int compare(PersistedLogEntry e1, PersistedLogEntry e2) {
+				return e1.toKeyString().compareTo(e2.toKeyString());
+			}
+		});
+		return sorted;
+	}
+	
 	public static void setMustCount(boolean mustCount) {
 		doCount = mustCount;		
 	}
 	
+	/**
+	 * Sets the format of the log file, "text" or "binary"; see {@link LogFormat}.
+	 * An existing log file is merged into regardless of the format it was written in.
+	 */
+	public static void setLogFormat(String formatName) {
+		logFormat = LogFormat.forName(formatName);
+	}
+	
+	/**
+	 * Returns the name of the log file within the output directory, which depends on the log format.
+	 */
+	public static String logFileName() {
+		return logFormat.defaultFileName();
+	}
+	
+	public static boolean isTextLog() {
+		return logFormat==LogFormat.TEXT;
+	}
+	
 	public static void setLogFile(File f) {
 		logFile = f;
 		
+		//merge what a previous run that did not shut down properly left in its journal
+		LogCheckpointer.recover(f, logFormat);
+		
 		//send path of log file over Socket (if connected)
-		newLineWriter.println(f.getAbsolutePath());
+		if(onlineStreamer!=null)
+			onlineStreamer.send(f.getAbsolutePath());
+	}
+	
+	/**
+	 * Streams new log entries over the given socket. At most <code>bufferSize</code> lines
+	 * are buffered; if the buffer is full, further lines are dropped if <code>dropWhenFull</code>
+	 * is set, otherwise the logging thread waits until lines have been sent.
+	 */
+	public static void setSocket(Socket s, int bufferSize, boolean dropWhenFull) throws IOException {
+		onlineStreamer = new OnlineStreamer(s.getOutputStream(), bufferSize, dropWhenFull);
+	}
+	
+	/**
+	 * Sends all buffered log entries and stops streaming; must be called before the socket is closed.
+	 */
+	public static void closeOnlineStream() {
+		OnlineStreamer streamer = onlineStreamer;
+		if(streamer!=null) {
+			onlineStreamer = null;
+			long dropped = streamer.close();
+			droppedOnlineLines += dropped;
+			if(dropped>0)
+				System.out.println("Dropped "+dropped+" log entries from the online stream, as its buffer was full.");
+		}
+	}
+	
+	/**
+	 * Returns the number of log lines that were not sent to Eclipse because the online
+	 * stream's buffer was full.
+	 */
+	public static long droppedOnlineLines() {
+		OnlineStreamer streamer = onlineStreamer;
+		return droppedOnlineLines + (streamer!=null ? streamer.droppedLines() : 0);
+	}
+	
+	/**
+	 * Starts to checkpoint new log entries every <code>intervalMillis</code> milliseconds,
+	 * so that they survive if the program is killed; see {@link LogCheckpointer}.
+	 */
+	public static void startCheckpointing(long intervalMillis) {
+		checkpointer = new LogCheckpointer(logFile);
+		checkpointer.start(intervalMillis);
+	}
+	
+	/**
+	 * Forgets all log entries found so far, which must have been written to disk before.
+	 * This lets the agent be attached again after it detached from the VM.
+	 */
+	public static synchronized void reset() {
+		containerMethodToEntries.clear();
+		FrameResolver.clear();
+		CallSites.forgetLogged();
+		numEntries.set(0);
+		checkpointer = null;
+	}
+	
+	/**
+	 * Turns logging on or off. While logging is off, all hooks return right away, so that
+	 * the instrumentation costs no more than reading a flag; log entries found so far are kept.
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Turns logging off once the given number of distinct log entries has been found,
+	 * which bounds the memory and time spent on programs with unexpectedly many
+	 * reflective call sites. 0 means no limit.
+	 */
+	public static void setMaxEntries(int max) {
+		maxEntries = max;
 	}
 	
-	public static void setSocket(Socket s) throws IOException {
-		newLineWriter = new PrintWriter(s.getOutputStream());
+	/**
+	 * Returns the number of distinct log entries found so far.
+	 */
+	public static int numberOfEntries() {
+		return numEntries.get();
+	}
+	
+	/**
+	 * Returns the number of distinct call sites, i.e., pairs of container method and line,
+	 * at which log entries were found so far.
+	 */
+	public static int numberOfCallSites() {
+		int callSites = 0;
+		for(ConcurrentMap<RuntimeLogEntry,RuntimeLogEntry> entries: containerMethodToEntries.values()) {
+			Set<Integer> lines = new HashSet<Integer>();
+			for(RuntimeLogEntry entry: entries.keySet()) {
+				lines.add(entry.getLineNumber());
+			}
+			callSites += lines.size();
+		}
+		return callSites;
+	}
+	
+	/**
+	 * Records the given number of callers of the container method with each entry,
+	 * so that calls in different calling contexts yield different entries. 0 turns this off.
+	 */
+	public static void setContextDepth(int depth) {
+		contextDepth = depth;
 	}
 	
 	public static void setuseDeclaredTypes(boolean on) {
 		useDeclaredTypes = on;
 	}
 
-	//is called by the agent
-	private static void initializeLogFile() {
-		File f = logFile;
-		if(f.exists() && f.canRead()) {
-			FileInputStream fis = null;
-			BufferedReader reader = null;
-			try {
-				fis = new FileInputStream(f);
-				reader = new BufferedReader(new InputStreamReader(fis));
-				String line;
-				while((line=reader.readLine())!=null) {
-					String[] split = line.split(";",-1);
-					Kind kind = Kind.kindForLabel(split[0]);
-					String target = split[1];
-					String containerMethod = split[2];
-					int lineNumber = split[3].isEmpty()?-1:Integer.parseInt(split[3]);
-					String metadata = split[4];
-					int count = (split.length<6||split[5].isEmpty()||!doCount)?0:Integer.parseInt(split[5]);
-					PersistedLogEntry entry = new PersistedLogEntry(containerMethod, lineNumber, kind, target, metadata, count);
-					oldContainerMethodToEntries.put(entry,entry);
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if(reader!=null) reader.close();
-					if(fis!=null) fis.close();
-				} catch (IOException e) {
-				}
-			}
-		} 
+	/**
+	 * Tells whether counts are recorded; if not, counts read from existing logs are dropped as well.
+	 */
+	static boolean mustCount() {
+		return doCount;
 	}
 	
-	private static Set<PersistedLogEntry> mergeOldAndNewLog(boolean verbose, int newClasses) {
-		initializeLogFile();
-		Set<RuntimeLogEntry> newLogSet = new HashSet<RuntimeLogEntry>();
-		for(Map<RuntimeLogEntry,RuntimeLogEntry> values: containerMethodToEntries.values()) {
-			newLogSet.addAll(values.keySet());
-		}
-		
-		Set<PersistedLogEntry> merged = new HashSet<PersistedLogEntry>();
-		
-		for (RuntimeLogEntry newLogEntry : newLogSet) {
-			PersistedLogEntry persistedEntry = newLogEntry.toPersistedEntry();
-			PersistedLogEntry correspondingOldEntry = oldContainerMethodToEntries.get(persistedEntry);
-			if(correspondingOldEntry!=null) {
-				PersistedLogEntry mergedEntry = PersistedLogEntry.merge(persistedEntry, correspondingOldEntry);
-				merged.add(mergedEntry);
-			} else {
-				merged.add(persistedEntry);
-			}
-		}
-		
-		for (PersistedLogEntry oldLogEntry : oldContainerMethodToEntries.keySet()) {
-			//if no corresponding merged entry contained yet, add the old one
-			if(!merged.contains(oldLogEntry)) {
-				merged.add(oldLogEntry);
-			}
-		}
-		
-		Set<PersistedLogEntry> newEntries = new HashSet<PersistedLogEntry>(merged);
-		newEntries.removeAll(oldContainerMethodToEntries.keySet());
-		
+	public static void printSummary(boolean verbose, int newClasses, List<PersistedLogEntry> newEntries) {
 		System.out.println("\n============================================================");
 		System.out.println("TamiFlex Play-Out Agent Version "+ReflLogger.class.getPackage().getImplementationVersion());
 		if(newEntries.isEmpty()) {
@@ -513,7 +840,5 @@ public class ReflLogger {
 		}
 		System.out.println("Log file written to: "+logFile.getAbsolutePath());
 		System.out.println("============================================================");
-		
-		return merged;
 	}
 }
\ No newline at end of file
@@ -12,27 +12,45 @@ package de.bodden.tamiflex.playout.rt;
 
 import static de.bodden.tamiflex.normalizer.Hasher.dotted;
 import static de.bodden.tamiflex.normalizer.Hasher.slashed;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import de.bodden.tamiflex.normalizer.Hasher;
 
 
 
 
+/**
+ * An entry of the log while the program runs. Names are held as ids of the {@link SymbolTable},
+ * and only materialized by {@link #toPersistedEntry()} and {@link #toString()}.
+ */
 public abstract class RuntimeLogEntry {
 	
-	protected final String containerMethod;
+	protected final int containerMethod;
 	
 	protected final int lineNumber;
 
 	protected final Kind kind;
+
+	//null if contexts are not recorded
+	protected final CallingContext context;
 	
-	protected int count;
+	//striped, as the same entry can be hit by many threads at once;
+	//created on the first increment, as most entries only serve as lookup keys
+	private volatile StripedCounter count;
 
-	public RuntimeLogEntry(String containerMethod, int lineNumber, Kind kind) {
+	private static final AtomicReferenceFieldUpdater<RuntimeLogEntry,StripedCounter> COUNT_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(RuntimeLogEntry.class, StripedCounter.class, "count");
+
+	//count at the last checkpoint, or -1 if not checkpointed yet; only accessed by the LogCheckpointer
+	long checkpointedCount = -1;
+
+	public RuntimeLogEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind) {
 		if(lineNumber<0) lineNumber = -1;
 		this.containerMethod = containerMethod;
 		this.lineNumber = lineNumber;
+		this.context = context;
 		this.kind = kind;
-		this.count = 0;
 	}
 	
 	@Override
@@ -40,10 +58,10 @@ public abstract class RuntimeLogEntry {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result
-				+ ((containerMethod == null) ? 0 : containerMethod.hashCode());
+		result = prime * result + containerMethod;
 		result = prime * result + ((kind == null) ? 0 : kind.hashCode());
 		result = prime * result + lineNumber;
+		result = prime * result + ((context == null) ? 0 : context.hashCode());
 		return result;
 	}
 
@@ -57,10 +75,7 @@ public abstract class RuntimeLogEntry {
 		if (getClass() != obj.getClass())
 			return false;
 		RuntimeLogEntry other = (RuntimeLogEntry) obj;
-		if (containerMethod == null) {
-			if (other.containerMethod != null)
-				return false;
-		} else if (!containerMethod.equals(other.containerMethod))
+		if (containerMethod != other.containerMethod)
 			return false;
 		if (kind == null) {
 			if (other.kind != null)
@@ -69,15 +84,19 @@ public abstract class RuntimeLogEntry {
 			return false;
 		if (lineNumber != other.lineNumber)
 			return false;
+		//contexts are canonical
+		if (context != other.context)
+			return false;
 		return true;
 	}
 
-	public int getCount() {
-		return count;
+	public long getCount() {
+		StripedCounter c = count;
+		return c==null ? 0 : c.sum();
 	}
 
 	public String getContainerMethod() {
-		return containerMethod;
+		return SymbolTable.symbol(containerMethod);
 	}
 
 	public int getLineNumber() {
@@ -88,11 +107,48 @@ public abstract class RuntimeLogEntry {
 		return kind;
 	}
 
+	public CallingContext getContext() {
+		return context;
+	}
+
 	public void incrementCounter() {
-		count++;
+		incrementCounter(1);
+	}
+
+	/**
+	 * Adds <code>weight</code> to the count, e.g. the sampling interval for a sampled call.
+	 */
+	public void incrementCounter(int weight) {
+		StripedCounter c = count;
+		if(c==null) {
+			COUNT_UPDATER.compareAndSet(this, null, new StripedCounter());
+			c = count;
+		}
+		c.add(weight);
+	}
+
+	/**
+	 * Returns the given metadata, followed by the entry's context, if any.
+	 */
+	protected String metadata(String metadata) {
+		if(context!=null)
+			metadata = appendMetadata(metadata, "context="+context.toPersistedString());
+		return metadata;
+	}
+
+	/**
+	 * Tells whether the count of this entry is an estimate, see {@link CallSampler}.
+	 */
+	protected boolean isCountEstimated() {
+		return CallSampler.isSampled(kind);
+	}
+
+	private static String appendMetadata(String metadata, String item) {
+		return metadata.isEmpty() ? item : metadata+","+item;
 	}
 	
-	protected static String replaceByHashedClassNameAndMethodName(String classNameAndMethodName) {
+	protected static String replaceByHashedClassNameAndMethodName(int classNameAndMethodNameId) {
+		String classNameAndMethodName = SymbolTable.symbol(classNameAndMethodNameId);
 		assert classNameAndMethodName.contains("."): "String should have format Class.Name.methodName: "+classNameAndMethodName;
 		int divider = classNameAndMethodName.lastIndexOf('.');
 		String className = classNameAndMethodName.substring(0,divider);
@@ -101,13 +157,35 @@ public abstract class RuntimeLogEntry {
 		return hashedName + "." + methodName; 
 	}
 
-	protected static String replaceByHashedClassName(String className) {
+	protected static String replaceByHashedClassName(int classNameId) {
+		return replaceByHashedClassName(SymbolTable.symbol(classNameId));
+	}
+
+	private static String replaceByHashedClassName(String className) {
 		String slashedClassName = slashed(className);		
 		String hashedName = Hasher.containsGeneratedClassName(slashedClassName) ?
 			Hasher.hashedClassNameForGeneratedClassName(slashedClassName) : 
 			slashedClassName;
+		//a generated class that was defined too late to be dumped keeps its name
+		if(hashedName==null) hashedName = slashedClassName;
 		return dotted(hashedName);
 	}
 	
+	/**
+	 * Tells whether this entry mentions a generated class, whose hashed name is only known
+	 * at shutdown. Only checks the stored symbol ids; does not materialize the entry.
+	 */
+	public boolean mentionsGeneratedClass() {
+		return isGeneratedClass(containerMethod) || (context!=null && context.mentionsGeneratedClass());
+	}
+
+	/**
+	 * Tells whether the given symbol, a class name or <code>Class.Name.methodName</code>,
+	 * contains the name of a generated class.
+	 */
+	protected static boolean isGeneratedClass(int symbolId) {
+		return Hasher.containsGeneratedClassName(slashed(SymbolTable.symbol(symbolId)));
+	}
+
 	public abstract PersistedLogEntry toPersistedEntry();
 }
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Merges new log entries into a log file in a single pass. As log files are sorted,
+ * the merger streams through the old file, interleaving the (sorted) new entries and
+ * summing up the counts of entries that occur in both. Memory use is thus bounded by
+ * the number of new entries, not by the size of the log file.
+ *
+ * Entries are ordered by {@link PersistedLogEntry#toKeyString()}, which coincides with
+ * the order of their lines. Log files that are not sorted this way, e.g. because they
+ * were edited by hand, are merged in memory instead.
+ *
+ * The old log file may be in either {@link LogFormat}; the merged log is written in the
+ * requested one.
+ */
+public class SortedLogMerger implements Iterator<PersistedLogEntry> {
+
+	/**
+	 * Thrown if the old log file turns out not to be sorted.
+	 */
+	protected static class UnsortedLogException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public UnsortedLogException(String message) {
+			super(message);
+		}
+	}
+
+	private final LogReader oldLog;
+
+	private final Iterator<PersistedLogEntry> newLog;
+
+	private final List<PersistedLogEntry> newEntries = new ArrayList<PersistedLogEntry>();
+
+	private PersistedLogEntry nextOld, nextNew;
+
+	private String nextOldKey, nextNewKey;
+
+	protected SortedLogMerger(File oldLogFile, Collection<PersistedLogEntry> sortedNewLog) throws IOException {
+		this.oldLog = oldLogFile.exists() && oldLogFile.canRead() ?
+				LogFormat.open(oldLogFile, ReflLogger.mustCount()) : null;
+		this.newLog = sortedNewLog.iterator();
+		advanceOld();
+		advanceNew();
+	}
+
+	/**
+	 * Merges the given entries into the given log file, which is rewritten in the given format,
+	 * and returns the entries that the log file did not contain before.
+	 */
+	public static List<PersistedLogEntry> mergeInto(File logFile, LogFormat format, Collection<PersistedLogEntry> entries) throws IOException {
+		//sort the new entries; entries with the same key (e.g. from multiple checkpoints) are summed up
+		TreeMap<String,PersistedLogEntry> sorted = new TreeMap<String,PersistedLogEntry>();
+		for (PersistedLogEntry entry : entries) {
+			String key = entry.toKeyString();
+			PersistedLogEntry other = sorted.get(key);
+			sorted.put(key, other==null ? entry : PersistedLogEntry.merge(other, entry));
+		}
+
+		SortedLogMerger merger = new SortedLogMerger(logFile, sorted.values());
+		try {
+			LogCheckpointer.replaceLogFile(logFile, format, merger);
+			return merger.newEntries;
+		} catch (UnsortedLogException e) {
+			System.err.println("Log file "+logFile.getAbsolutePath()+" is not sorted ("+e.getMessage()+"), merging in memory.");
+			return mergeInMemory(logFile, format, sorted.values());
+		} finally {
+			merger.close();
+		}
+	}
+
+	private static List<PersistedLogEntry> mergeInMemory(File logFile, LogFormat format, Collection<PersistedLogEntry> entries) throws IOException {
+		Map<PersistedLogEntry,PersistedLogEntry> merged = new HashMap<PersistedLogEntry,PersistedLogEntry>();
+		for (PersistedLogEntry entry : LogFormat.readAll(logFile, ReflLogger.mustCount())) {
+			merged.put(entry, entry);
+		}
+		List<PersistedLogEntry> newEntries = new ArrayList<PersistedLogEntry>();
+		for (PersistedLogEntry entry : entries) {
+			PersistedLogEntry old = merged.get(entry);
+			if(old==null) {
+				newEntries.add(entry);
+			} else {
+				entry = PersistedLogEntry.merge(entry, old);
+			}
+			merged.put(entry, entry);
+		}
+		LogCheckpointer.replaceLogFile(logFile, format, ReflLogger.sortedEntries(merged.values()).iterator());
+		return newEntries;
+	}
+
+	public boolean hasNext() {
+		return nextOld!=null || nextNew!=null;
+	}
+
+	public PersistedLogEntry next() {
+		PersistedLogEntry result;
+		int comparison;
+		if(nextOld==null) {
+			if(nextNew==null) throw new NoSuchElementException();
+			comparison = 1;
+		} else if(nextNew==null) {
+			comparison = -1;
+		} else {
+			comparison = nextOldKey.compareTo(nextNewKey);
+		}
+
+		if(comparison<0) {
+			result = nextOld;
+			advanceOld();
+		} else if(comparison>0) {
+			result = nextNew;
+			newEntries.add(nextNew);
+			advanceNew();
+		} else {
+			result = PersistedLogEntry.merge(nextNew, nextOld);
+			advanceOld();
+			advanceNew();
+		}
+		return result;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void advanceNew() {
+		if(newLog.hasNext()) {
+			nextNew = newLog.next();
+			nextNewKey = nextNew.toKeyString();
+		} else {
+			nextNew = null;
+			nextNewKey = null;
+		}
+	}
+
+	private void advanceOld() {
+		String previousKey = nextOldKey;
+		nextOld = null;
+		nextOldKey = null;
+		if(oldLog==null) return;
+		try {
+			nextOld = oldLog.read();
+			if(nextOld!=null)
+				nextOldKey = nextOld.toKeyString();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if(previousKey!=null && nextOldKey!=null && previousKey.compareTo(nextOldKey)>=0) {
+			throw new UnsortedLogException("\""+nextOldKey+"\" follows \""+previousKey+"\"");
+		}
+	}
+
+	private void close() {
+		try {
+			if(oldLog!=null) oldLog.close();
+		} catch (IOException e) {
+		}
+	}
+}
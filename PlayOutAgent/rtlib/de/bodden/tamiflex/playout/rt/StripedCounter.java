@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A 64-bit counter that stays cheap to increment when many threads hit it at once.
+ * Uncontended increments update a single base value. Once an increment loses a race
+ * on the base value, the counter switches to one cell per stripe, and threads increment
+ * the cell selected by their thread id. Cells are padded to avoid false sharing.
+ * (This is what java.util.concurrent.atomic.LongAdder does on Java 8.)
+ */
+public class StripedCounter {
+
+	//a power of two, so that a mask selects the stripe
+	private static final int STRIPES;
+
+	//number of longs per cell; 8 longs fill a 64-byte cache line
+	private static final int PADDING = 8;
+
+	static {
+		int stripes = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while(stripes<processors && stripes<64) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	private static final AtomicLongFieldUpdater<StripedCounter> BASE_UPDATER =
+		AtomicLongFieldUpdater.newUpdater(StripedCounter.class, "base");
+
+	private static final AtomicReferenceFieldUpdater<StripedCounter,AtomicLongArray> CELLS_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(StripedCounter.class, AtomicLongArray.class, "cells");
+
+	private volatile long base;
+
+	//null until the first contended increment
+	private volatile AtomicLongArray cells;
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long delta) {
+		AtomicLongArray c = cells;
+		if(c==null) {
+			long b = base;
+			if(BASE_UPDATER.compareAndSet(this, b, b+delta)) return;
+			//contended: switch to striped cells
+			CELLS_UPDATER.compareAndSet(this, null, new AtomicLongArray(STRIPES*PADDING));
+			c = cells;
+		}
+		c.getAndAdd(stripe()*PADDING, delta);
+	}
+
+	/**
+	 * Returns the current total. The result is exact if there are no concurrent increments.
+	 */
+	public long sum() {
+		long sum = base;
+		AtomicLongArray c = cells;
+		if(c!=null) {
+			for(int i=0; i<STRIPES; i++) {
+				sum += c.get(i*PADDING);
+			}
+		}
+		return sum;
+	}
+
+	private static int stripe() {
+		//spread thread ids, which are usually consecutive, over the stripes
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPES-1);
+	}
+}
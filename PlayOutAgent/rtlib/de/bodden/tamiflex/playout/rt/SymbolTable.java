@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the names that runtime log entries are made of, i.e., container methods,
+ * classes, types and member names, and assigns each a dense int id. Entries hold
+ * ids only, so that a name shared by many entries is stored once, and entries are
+ * compared without comparing strings. Names are only materialized again when entries
+ * are written out. Symbols are never removed.
+ */
+public class SymbolTable {
+
+	//written under the lock, read without; re-published after every write, so that readers see complete symbols
+	private static volatile String[] symbols = new String[4096];
+
+	private static final ConcurrentMap<String,Integer> symbolToId = new ConcurrentHashMap<String,Integer>(4096, 0.75f, 64);
+
+	/**
+	 * Returns the id of the given symbol, adding the symbol if it is not known yet.
+	 */
+	public static int id(String symbol) {
+		Integer id = symbolToId.get(symbol);
+		return id!=null ? id : add(symbol);
+	}
+
+	/**
+	 * Returns the ids of the given symbols.
+	 */
+	public static int[] ids(String[] symbols) {
+		int[] ids = new int[symbols.length];
+		for (int i = 0; i < symbols.length; i++) {
+			ids[i] = id(symbols[i]);
+		}
+		return ids;
+	}
+
+	private static synchronized int add(String symbol) {
+		Integer id = symbolToId.get(symbol);
+		if(id!=null) return id;
+
+		id = symbolToId.size();
+		String[] s = symbols;
+		if(id==s.length) {
+			String[] larger = new String[s.length*2];
+			System.arraycopy(s, 0, larger, 0, s.length);
+			s = larger;
+		}
+		s[id] = symbol;
+		symbols = s;
+		symbolToId.put(symbol, id);
+		return id;
+	}
+
+	/**
+	 * Returns the symbol with the given id, which must have been returned by {@link #id(String)}.
+	 */
+	public static String symbol(int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * Returns the symbols with the given ids.
+	 */
+	public static String[] symbols(int[] ids) {
+		String[] result = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			result[i] = symbol(ids[i]);
+		}
+		return result;
+	}
+}
@@ -14,12 +14,12 @@ import java.util.Arrays;
 
 public class TargetArrayLogEntry extends RuntimeLogEntry {
 
-	protected final String componentType;
+	protected final int componentType;
 	protected final int[] dimensions;
 	
 	//TODO eliminate Kind?
-	public TargetArrayLogEntry(String containerMethod, int lineNumber, Kind kind, String componentType, int... dimensions) {
-		super(containerMethod, lineNumber, kind);
+	public TargetArrayLogEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int componentType, int... dimensions) {
+		super(containerMethod, lineNumber, context, kind);
 		this.componentType = componentType;
 		this.dimensions = dimensions;
 	}
@@ -30,7 +30,7 @@ public class TargetArrayLogEntry extends RuntimeLogEntry {
 		String hashedComponentType = replaceByHashedClassName(componentType);
 			
 		String sootSignature = sootSignature(hashedComponentType, dimensions);
-		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, ""/*no metdata*/, count);
+		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, metadata(""), isCountEstimated(), getCount());
 	}
 	
 	private static String sootSignature(String componentType, int... dimensions) {
@@ -42,12 +42,16 @@ public class TargetArrayLogEntry extends RuntimeLogEntry {
 		return b.toString();
 	}
 
+	@Override
+	public boolean mentionsGeneratedClass() {
+		return super.mentionsGeneratedClass() || isGeneratedClass(componentType);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result
-				+ ((componentType == null) ? 0 : componentType.hashCode());
+		result = prime * result + componentType;
 		result = prime * result + Arrays.hashCode(dimensions);
 		return result;
 	}
@@ -61,10 +65,7 @@ public class TargetArrayLogEntry extends RuntimeLogEntry {
 		if (getClass() != obj.getClass())
 			return false;
 		TargetArrayLogEntry other = (TargetArrayLogEntry) obj;
-		if (componentType == null) {
-			if (other.componentType != null)
-				return false;
-		} else if (!componentType.equals(other.componentType))
+		if (componentType != other.componentType)
 			return false;
 		if (!Arrays.equals(dimensions, other.dimensions))
 			return false;
@@ -73,8 +74,8 @@ public class TargetArrayLogEntry extends RuntimeLogEntry {
 
 	@Override //TODO pull up to super class?
 	public String toString() {
-		String targetArray = sootSignature(componentType, dimensions);
-		return kind.label() + ";" + targetArray + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + (count>0?count:"");
+		String targetArray = sootSignature(SymbolTable.symbol(componentType), dimensions);
+		return kind.label() + ";" + targetArray + ";" + getContainerMethod() + ";" + (lineNumber>-1?lineNumber:"") + ";" + (getCount()>0?getCount():"");
 	}
 	
 }
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the targets of reflective calls as ids of the {@link SymbolTable}, so that
+ * logging a call that has been seen before needs no reflective lookups and creates no strings.
+ * Tables are attached to classes through {@link ClassValue}s, hence they do not
+ * prevent classes from being unloaded.
+ */
+public class TargetCache {
+
+	/**
+	 * The declaring class, return type, name and parameter types of a method or constructor.
+	 */
+	public static class MethodTarget {
+
+		public final int declaringClass;
+
+		public final int returnType;
+
+		public final int name;
+
+		public final int[] paramTypes;
+
+		protected MethodTarget(String declaringClass, String returnType, String name, String[] paramTypes) {
+			this.declaringClass = SymbolTable.id(declaringClass);
+			this.returnType = SymbolTable.id(returnType);
+			this.name = SymbolTable.id(name);
+			this.paramTypes = SymbolTable.ids(paramTypes);
+		}
+	}
+
+	/**
+	 * The declaring class, type and name of a field.
+	 */
+	public static class FieldTarget {
+
+		public final int declaringClass;
+
+		public final int fieldType;
+
+		public final int name;
+
+		protected FieldTarget(String declaringClass, String fieldType, String name) {
+			this.declaringClass = SymbolTable.id(declaringClass);
+			this.fieldType = SymbolTable.id(fieldType);
+			this.name = SymbolTable.id(name);
+		}
+	}
+
+	//receiver class -> invoked method -> method that virtual dispatch resolves to
+	private static final ClassValue<ConcurrentMap<Method,MethodTarget>> resolvedMethods = new ClassValue<ConcurrentMap<Method,MethodTarget>>() {
+		@Override
+		protected ConcurrentMap<Method,MethodTarget> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Method,MethodTarget>(8, 0.75f, 4);
+		}
+	};
+
+	//declaring class -> constructor -> target
+	private static final ClassValue<ConcurrentMap<Constructor<?>,MethodTarget>> constructors = new ClassValue<ConcurrentMap<Constructor<?>,MethodTarget>>() {
+		@Override
+		protected ConcurrentMap<Constructor<?>,MethodTarget> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Constructor<?>,MethodTarget>(4, 0.75f, 4);
+		}
+	};
+
+	//declaring class -> field -> target
+	private static final ClassValue<ConcurrentMap<Field,FieldTarget>> fields = new ClassValue<ConcurrentMap<Field,FieldTarget>>() {
+		@Override
+		protected ConcurrentMap<Field,FieldTarget> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Field,FieldTarget>(8, 0.75f, 4);
+		}
+	};
+
+	/**
+	 * Returns the target of the method that a virtual call to <code>m</code> on a receiver of
+	 * type <code>receiverClass</code> dispatches to, or <code>null</code> if there is no such method.
+	 */
+	public static MethodTarget resolvedMethod(Class<?> receiverClass, Method m) {
+		ConcurrentMap<Method,MethodTarget> targets = resolvedMethods.get(receiverClass);
+		MethodTarget target = targets.get(m);
+		if(target==null) {
+			//resolve virtual call
+			Method resolved = null;
+			Class<?> c = receiverClass;
+			do {
+				try {
+					resolved = c.getDeclaredMethod(m.getName(), m.getParameterTypes());
+				} catch(NoSuchMethodException e) {
+					c = c.getSuperclass();
+				}
+			} while(resolved==null && c!=null);
+			if(resolved==null) return null;
+
+			target = new MethodTarget(
+					resolved.getDeclaringClass().getName(),
+					ReflLogger.getTypeName(resolved.getReturnType()),
+					resolved.getName(),
+					classesToTypeNames(resolved.getParameterTypes()));
+			MethodTarget other = targets.putIfAbsent(m, target);
+			if(other!=null) target = other;
+		}
+		return target;
+	}
+
+	/**
+	 * Returns the target for the given constructor.
+	 */
+	public static MethodTarget constructor(Constructor<?> c) {
+		ConcurrentMap<Constructor<?>,MethodTarget> targets = constructors.get(c.getDeclaringClass());
+		MethodTarget target = targets.get(c);
+		if(target==null) {
+			target = new MethodTarget(c.getDeclaringClass().getName(), "void", "<init>", classesToTypeNames(c.getParameterTypes()));
+			MethodTarget other = targets.putIfAbsent(c, target);
+			if(other!=null) target = other;
+		}
+		return target;
+	}
+
+	/**
+	 * Returns the target for the given field.
+	 */
+	public static FieldTarget field(Field f) {
+		ConcurrentMap<Field,FieldTarget> targets = fields.get(f.getDeclaringClass());
+		FieldTarget target = targets.get(f);
+		if(target==null) {
+			target = new FieldTarget(ReflLogger.getTypeName(f.getDeclaringClass()), ReflLogger.getTypeName(f.getType()), f.getName());
+			FieldTarget other = targets.putIfAbsent(f, target);
+			if(other!=null) target = other;
+		}
+		return target;
+	}
+
+	private static String[] classesToTypeNames(Class<?>[] params) {
+		String[] paramTypes = new String[params.length];
+		int i=0;
+		for (Class<?> type : params) {
+			paramTypes[i]=ReflLogger.getTypeName(type);
+			i++;
+		}
+		return paramTypes;
+	}
+}
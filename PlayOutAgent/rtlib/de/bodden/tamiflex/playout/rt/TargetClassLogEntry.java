@@ -12,25 +12,29 @@ package de.bodden.tamiflex.playout.rt;
 
 public class TargetClassLogEntry extends RuntimeLogEntry {
 
-	protected final String targetClass;
+	protected final int targetClass;
 
-	public TargetClassLogEntry(String containerMethod, int lineNumber, Kind kind, String targetClass) {
-		super(containerMethod, lineNumber, kind);
+	public TargetClassLogEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int targetClass) {
+		super(containerMethod, lineNumber, context, kind);
 		this.targetClass = targetClass;
 	}
 
 	public PersistedLogEntry toPersistedEntry() {
 		String hashedContainerMethod = replaceByHashedClassNameAndMethodName(containerMethod);
 		String hashedTargetClass = replaceByHashedClassName(targetClass);
-		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, hashedTargetClass, ""/*no metdata*/, count);
+		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, hashedTargetClass, metadata(""), isCountEstimated(), getCount());
+	}
+
+	@Override
+	public boolean mentionsGeneratedClass() {
+		return super.mentionsGeneratedClass() || isGeneratedClass(targetClass);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result
-				+ ((targetClass == null) ? 0 : targetClass.hashCode());
+		result = prime * result + targetClass;
 		return result;
 	}
 
@@ -43,16 +47,13 @@ public class TargetClassLogEntry extends RuntimeLogEntry {
 		if (getClass() != obj.getClass())
 			return false;
 		TargetClassLogEntry other = (TargetClassLogEntry) obj;
-		if (targetClass == null) {
-			if (other.targetClass != null)
-				return false;
-		} else if (!targetClass.equals(other.targetClass))
+		if (targetClass != other.targetClass)
 			return false;
 		return true;
 	}
 	
 	@Override
 	public String toString() {
-		return kind.label() + ";" + targetClass + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + (count>0?count:"");
+		return kind.label() + ";" + SymbolTable.symbol(targetClass) + ";" + getContainerMethod() + ";" + (lineNumber>-1?lineNumber:"") + ";" + (getCount()>0?getCount():"");
 	}
 }
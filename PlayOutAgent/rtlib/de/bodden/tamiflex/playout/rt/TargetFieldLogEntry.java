@@ -12,13 +12,13 @@ package de.bodden.tamiflex.playout.rt;
 
 public class TargetFieldLogEntry extends RuntimeLogEntry {
 
-	protected final String declaringClass;
-	protected final String fieldType;
-	protected final String name;
+	protected final int declaringClass;
+	protected final int fieldType;
+	protected final int name;
 	protected final boolean isAccessible;
 
-	public TargetFieldLogEntry(String containerMethod, int lineNumber, Kind kind, String declaringClass, String fieldType, String name, boolean isAccessible) {
-		super(containerMethod, lineNumber, kind);
+	public TargetFieldLogEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int declaringClass, int fieldType, int name, boolean isAccessible) {
+		super(containerMethod, lineNumber, context, kind);
 		this.declaringClass = declaringClass;
 	    this.fieldType = fieldType;
 	    this.name = name;
@@ -30,8 +30,8 @@ public class TargetFieldLogEntry extends RuntimeLogEntry {
         String hashedDeclaringClass = replaceByHashedClassName(declaringClass);
         String hashedReturnType = replaceByHashedClassName(fieldType);
             
-        String sootSignature = sootSignature(hashedDeclaringClass, hashedReturnType, name); // FIXME What should this be?
-        return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, "isAccessible="+Boolean.toString(isAccessible), count);
+        String sootSignature = sootSignature(hashedDeclaringClass, hashedReturnType, SymbolTable.symbol(name)); // FIXME What should this be?
+        return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, metadata("isAccessible="+Boolean.toString(isAccessible)), isCountEstimated(), getCount());
     }
     
     private static String sootSignature(String declaringClass, String fieldType, String name) {
@@ -46,16 +46,19 @@ public class TargetFieldLogEntry extends RuntimeLogEntry {
         return b.toString();
     }
 
+    @Override
+    public boolean mentionsGeneratedClass() {
+        return super.mentionsGeneratedClass() || isGeneratedClass(declaringClass) || isGeneratedClass(fieldType);
+    }
+
     @Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result
-				+ ((declaringClass == null) ? 0 : declaringClass.hashCode());
-		result = prime * result
-				+ ((fieldType == null) ? 0 : fieldType.hashCode());
+		result = prime * result + declaringClass;
+		result = prime * result + fieldType;
 		result = prime * result + (isAccessible ? 1231 : 1237);
-		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + name;
 		return result;
 	}
 
@@ -68,29 +71,20 @@ public class TargetFieldLogEntry extends RuntimeLogEntry {
 		if (getClass() != obj.getClass())
 			return false;
 		TargetFieldLogEntry other = (TargetFieldLogEntry) obj;
-		if (declaringClass == null) {
-			if (other.declaringClass != null)
-				return false;
-		} else if (!declaringClass.equals(other.declaringClass))
+		if (declaringClass != other.declaringClass)
 			return false;
-		if (fieldType == null) {
-			if (other.fieldType != null)
-				return false;
-		} else if (!fieldType.equals(other.fieldType))
+		if (fieldType != other.fieldType)
 			return false;
 		if (isAccessible != other.isAccessible)
 			return false;
-		if (name == null) {
-			if (other.name != null)
-				return false;
-		} else if (!name.equals(other.name))
+		if (name != other.name)
 			return false;
 		return true;
 	}
 
     @Override
     public String toString() {
-        String targetField = sootSignature(declaringClass, fieldType, name);
-        return kind.label() + ";" + targetField + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + (count>0?count:"");
+        String targetField = sootSignature(SymbolTable.symbol(declaringClass), SymbolTable.symbol(fieldType), SymbolTable.symbol(name));
+        return kind.label() + ";" + targetField + ";" + getContainerMethod() + ";" + (lineNumber>-1?lineNumber:"") + ";" + (getCount()>0?getCount():"");
     }
 }
@@ -14,14 +14,14 @@ import java.util.Arrays;
 
 public class TargetMethodLogEntry extends RuntimeLogEntry {
 
-	protected final String declaringClass;
-	protected final String returnType;
-	protected final String name;
-	protected final String[] paramTypes;
+	protected final int declaringClass;
+	protected final int returnType;
+	protected final int name;
+	protected final int[] paramTypes;
 	protected final boolean isAccessible;
 
-	public TargetMethodLogEntry(String containerMethod, int lineNumber, Kind kind, String declaringClass, String returnType, String name, boolean isAccessible, String... paramTypes) {
-		super(containerMethod, lineNumber, kind);
+	public TargetMethodLogEntry(int containerMethod, int lineNumber, CallingContext context, Kind kind, int declaringClass, int returnType, int name, boolean isAccessible, int... paramTypes) {
+		super(containerMethod, lineNumber, context, kind);
 		this.declaringClass = declaringClass;
 		this.returnType = returnType;
 		this.name = name;
@@ -35,13 +35,13 @@ public class TargetMethodLogEntry extends RuntimeLogEntry {
 		String hashedReturnType = replaceByHashedClassName(returnType);
 		String[] hashedParamTypes = new String[paramTypes.length];
 		int i=0;
-		for (String paramType : paramTypes) {
+		for (int paramType : paramTypes) {
 			hashedParamTypes[i] = replaceByHashedClassName(paramType);
 			i++;
 		}
 			
-		String sootSignature = sootSignature(hashedDeclaringClass, hashedReturnType, name, hashedParamTypes);
-		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, "isAccessible="+Boolean.toString(isAccessible), count);
+		String sootSignature = sootSignature(hashedDeclaringClass, hashedReturnType, SymbolTable.symbol(name), hashedParamTypes);
+		return new PersistedLogEntry(hashedContainerMethod, lineNumber, kind, sootSignature, metadata("isAccessible="+Boolean.toString(isAccessible)), isCountEstimated(), getCount());
 	}
 	
 	private static String sootSignature(String declaringClass, String returnType, String name, String... paramTypes) {
@@ -65,17 +65,25 @@ public class TargetMethodLogEntry extends RuntimeLogEntry {
 		return b.toString();
 	}
 
+	@Override
+	public boolean mentionsGeneratedClass() {
+		if(super.mentionsGeneratedClass() || isGeneratedClass(declaringClass) || isGeneratedClass(returnType))
+			return true;
+		for (int paramType : paramTypes) {
+			if(isGeneratedClass(paramType)) return true;
+		}
+		return false;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result
-				+ ((declaringClass == null) ? 0 : declaringClass.hashCode());
-		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + declaringClass;
+		result = prime * result + name;
 		result = prime * result + Arrays.hashCode(paramTypes);
 		result = prime * result + (isAccessible ? 1231 : 1237);
-		result = prime * result
-				+ ((returnType == null) ? 0 : returnType.hashCode());
+		result = prime * result + returnType;
 		return result;
 	}
 
@@ -88,22 +96,13 @@ public class TargetMethodLogEntry extends RuntimeLogEntry {
 		if (getClass() != obj.getClass())
 			return false;
 		TargetMethodLogEntry other = (TargetMethodLogEntry) obj;
-		if (declaringClass == null) {
-			if (other.declaringClass != null)
-				return false;
-		} else if (!declaringClass.equals(other.declaringClass))
+		if (declaringClass != other.declaringClass)
 			return false;
-		if (name == null) {
-			if (other.name != null)
-				return false;
-		} else if (!name.equals(other.name))
+		if (name != other.name)
 			return false;
 		if (!Arrays.equals(paramTypes, other.paramTypes))
 			return false;
-		if (returnType == null) {
-			if (other.returnType != null)
-				return false;
-		} else if (!returnType.equals(other.returnType))
+		if (returnType != other.returnType)
 			return false;
 		if (isAccessible != other.isAccessible)
 			return false;
@@ -112,8 +111,8 @@ public class TargetMethodLogEntry extends RuntimeLogEntry {
 
 	@Override
 	public String toString() {
-		String targetMethod = sootSignature(declaringClass, returnType, name, paramTypes);
-		return kind.label() + ";" + targetMethod + ";" + containerMethod + ";" + (lineNumber>-1?lineNumber:"") + ";" + (count>0?count:"");
+		String targetMethod = sootSignature(SymbolTable.symbol(declaringClass), SymbolTable.symbol(returnType), SymbolTable.symbol(name), SymbolTable.symbols(paramTypes));
+		return kind.label() + ";" + targetMethod + ";" + getContainerMethod() + ";" + (lineNumber>-1?lineNumber:"") + ";" + (getCount()>0?getCount():"");
 	}
 	
 }
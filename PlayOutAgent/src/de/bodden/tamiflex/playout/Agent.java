@@ -11,22 +11,43 @@
 package de.bodden.tamiflex.playout;
 
 import de.bodden.tamiflex.normalizer.Hasher;
+import de.bodden.tamiflex.playout.rt.CallSampler;
+import de.bodden.tamiflex.playout.rt.CallSiteFilter;
+import de.bodden.tamiflex.playout.rt.HookStatistics;
+import de.bodden.tamiflex.playout.rt.JfrEvents;
+import de.bodden.tamiflex.playout.rt.PersistedLogEntry;
 import de.bodden.tamiflex.playout.rt.ReflLogger;
 import de.bodden.tamiflex.playout.rt.ShutdownStatus;
 import java.io.*;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
-
-public class Agent {
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The Play-Out agent. An instance serves as the agent's management bean. It must be this class
+ * that implements the management interface: a class that is first loaded after
+ * {@link #appendRtJarToBootClassPath} comes from the bootstrap class loader, and would thus
+ * see a separate copy of the agent's static state.
+ */
+public class Agent implements AgentMXBean {
 
     private static final Path ERROR_FILE = Paths.get("POA.err");
     private static PrintStream ERR_LOG;
@@ -41,21 +62,224 @@ public class Agent {
         return ERR_LOG;
     }
 
+    public static final String OBJECT_NAME = "de.bodden.tamiflex.playout:type=Agent";
+
     public final static String PKGNAME = Agent.class.getPackage().getName().replace('.', '/');
 
     private static final boolean CAN_RETRANSFORM = true;
 
     private static ClassDumper classDumper;
-    private static boolean dontDump = false;
-    private static boolean dontNormalize = false;
-    private static boolean count = false;
+    //options; all of them are set by loadProperties, which is called again on every attach
+    private static boolean dontDump;
+    private static boolean dumpIntoArchive;
+    private static boolean dontNormalize;
+    private static boolean count;
     private static boolean useDeclaredTypes;
-    private static boolean verbose = false;
-    private static String outPath = "out";
-    private static String transformations = "";
+    private static boolean verbose;
+    private static String outPath;
+    private static String transformations;
+    private static boolean callSiteMode;
+    private static int onlineBufferSize;
+    private static boolean onlineDropWhenFull;
+    private static int checkpointInterval;
+    private static int maxEntries;
+    private static int attachDuration;
+    private static boolean statistics;
+    private static boolean jmx;
+    private static int jfrSamplingInterval;
+    private static int countSamplingInterval;
+    private static int contextDepth;
+    //keyed by the kinds' labels, as Kind must not be loaded before the boot class path is extended
+    private static Map<String, Integer> countSamplingIntervals;
+    private static String includeContainers;
+    private static String excludeContainers;
+    private static String includeTargets;
+    private static String excludeTargets;
+    private static String logFormat;
+    private static boolean attached = false;
+    private static boolean rtJarAppended = false;
+    private static Instrumentation instrumentation;
+    private static List<Class<?>> instrumentedClasses = Collections.emptyList();
     private static Socket socket;
 
     public static void premain(String agentArgs, Instrumentation inst) throws IOException, ClassNotFoundException, UnmodifiableClassException, URISyntaxException, InterruptedException {
+        final File logFile = initialize(inst, false);
+
+        if (callSiteMode) {
+            //the kinds of calls covered at call sites need not be instrumented in the JDK
+            transformations = CallSiteMonitor.withoutReplacedTransformations(transformations);
+        }
+        if (!transformations.isEmpty()) {
+            instrumentClassesForLogging(inst);
+        }
+
+        inst.addTransformer(classDumper, CAN_RETRANSFORM);
+        enableJfrEvents();
+        if (callSiteMode) {
+            //added after the class dumper, so that classes are dumped without instrumentation
+            inst.addTransformer(new CallSiteMonitor(), CAN_RETRANSFORM);
+        }
+
+        final boolean verboseOutput = verbose;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                ShutdownStatus.hasShutDown = true;
+                closeOnlineConnection();
+                writeClassesAndLog(verboseOutput);
+
+                String agentJarDir = agentJarFilePath.substring(0, agentJarFilePath.lastIndexOf('/'));
+                String version = Agent.class.getPackage().getImplementationVersion();
+                String dbJarPath = agentJarDir + '/' + "dbdumper-" + version + ".jar";
+
+                try {
+                    File jarfile = new File(new URI(dbJarPath));
+                    if (jarfile.exists() && !ReflLogger.isTextLog()) {
+                        System.out.println("Database JAR file found, but the database can only be filled from a text log. Use "
+                                + LogConverter.class.getName() + " to convert " + logFile + ".");
+                    } else if (jarfile.exists()) {
+                        System.out.println("Database JAR file found. Will attempt to dump log file to database.");
+                        DBDumper.dumpFileToDatabase(jarfile, logFile);
+                    }
+                } catch (URISyntaxException e) {
+                    e.printStackTrace(err());
+                }
+            }
+
+        });
+
+        System.out.println("============================================================");
+
+        if (ERR_LOG != null) {
+            ERR_LOG.close();
+        }
+    }
+
+    /**
+     * Entry point when the agent is attached to a running VM. The agent logs for the number
+     * of seconds given as agent argument, or by the attachDuration property, and then detaches
+     * again: the JDK classes it instrumented are retransformed back to their original bytes,
+     * and the log file and the dumped classes are written. The agent can be attached again
+     * afterwards. Call-site instrumentation is not available in this mode.
+     */
+    public static synchronized void agentmain(String agentArgs, Instrumentation inst) throws IOException, UnmodifiableClassException, URISyntaxException {
+        if (attached) {
+            System.err.println("TamiFlex Play-Out Agent is already attached; ignoring this attach request.");
+            return;
+        }
+        int seconds = -1;
+        if (agentArgs != null && !agentArgs.trim().isEmpty()) {
+            seconds = Integer.parseInt(agentArgs.trim());
+        }
+        final File logFile = initialize(inst, true);
+        if (seconds < 0) {
+            seconds = attachDuration;
+        }
+
+        if (callSiteMode) {
+            System.err.println("WARNING: Call-site instrumentation is not available when attaching. Instrumenting the JDK instead.");
+        }
+        if (!transformations.isEmpty()) {
+            instrumentClassesForLogging(inst);
+        }
+        inst.addTransformer(classDumper, CAN_RETRANSFORM);
+        enableJfrEvents();
+        ReflLogger.setEnabled(true);
+        attached = true;
+
+        final Thread shutdownHook = new Thread() {
+
+            @Override
+            public void run() {
+                ShutdownStatus.hasShutDown = true;
+                detach(logFile);
+            }
+
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        final long millis = seconds * 1000L;
+        Thread timer = new Thread("TamiFlex detach timer") {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    //detach early
+                }
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    //the VM is shutting down, and the hook detaches
+                    return;
+                }
+                detach(logFile);
+            }
+
+        };
+        timer.setDaemon(true);
+        timer.start();
+
+        System.out.println("Attached; detaching in " + seconds + " seconds.");
+        System.out.println("============================================================");
+
+        if (ERR_LOG != null) {
+            ERR_LOG.close();
+        }
+    }
+
+    private static synchronized void detach(File logFile) {
+        if (!attached) {
+            return;
+        }
+        ReflLogger.setEnabled(false);
+        JfrEvents.disable();
+        instrumentation.removeTransformer(classDumper);
+        if (!instrumentedClasses.isEmpty()) {
+            try {
+                //no logging transformer is registered anymore, so the classes get their original bytes back
+                instrumentation.retransformClasses(instrumentedClasses.toArray(new Class<?>[instrumentedClasses.size()]));
+            } catch (UnmodifiableClassException e) {
+                e.printStackTrace(err());
+            }
+            instrumentedClasses = Collections.emptyList();
+        }
+        closeOnlineConnection();
+        writeClassesAndLog(verbose);
+        ReflLogger.reset();
+        classDumper = null;
+        attached = false;
+        System.out.println("TamiFlex Play-Out Agent detached; log file written to " + logFile);
+    }
+
+    /**
+     * Writes the dumped classes and merges the log file. The log refers to generated classes by
+     * their hashed names, so these are computed first; then the log is merged on a thread of its
+     * own while the classes are written in parallel.
+     */
+    private static void writeClassesAndLog(boolean verbose) {
+        classDumper.hashGeneratedClasses();
+        //started by ReflLogger, as classes of this agent that are loaded only now come from the boot class path,
+        //and could not be instantiated from here
+        Future<List<PersistedLogEntry>> logMerge = ReflLogger.startMergingLogfile();
+        classDumper.writeHashedClasses();
+
+        List<PersistedLogEntry> newEntries = null;
+        try {
+            newEntries = logMerge.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        if (newEntries != null) {
+            ReflLogger.printSummary(verbose, classDumper.newClasses, newEntries);
+        }
+    }
+
+    private static File initialize(Instrumentation inst, boolean attaching) throws IOException, UnmodifiableClassException, URISyntaxException {
         if (!inst.isRetransformClassesSupported()) {
             throw new RuntimeException("retransformation not supported");
         }
@@ -69,8 +293,20 @@ public class Agent {
 
         ReflLogger.setMustCount(count);
         ReflLogger.setuseDeclaredTypes(useDeclaredTypes);
+        ReflLogger.setContextDepth(contextDepth);
+        ReflLogger.setLogFormat(logFormat);
+        ReflLogger.setMaxEntries(maxEntries);
+        if (count) {
+            CallSampler.configure(countSamplingInterval, countSamplingIntervals);
+        } else {
+            CallSampler.configure(0, Collections.<String, Integer>emptyMap());
+        }
+        CallSiteFilter.configure(includeContainers, excludeContainers, includeTargets, excludeTargets);
+        HookStatistics.setEnabled(statistics);
         if (dontNormalize) {
             Hasher.dontNormalize();
+        } else {
+            Hasher.normalize();
         }
 
         String hostAndPort = System.getenv("TAMIFLEX_ECLIPSE");
@@ -78,14 +314,12 @@ public class Agent {
             //online mode, open Socket
             String[] split = hostAndPort.split(":");
             if (split.length != 2) {
-                System.err.println("Illegal argument: " + agentArgs);
-                System.err.println("Expected format: hostname:socket");
-                System.exit(1);
+                abort("Illegal value of TAMIFLEX_ECLIPSE: " + hostAndPort + "\nExpected format: hostname:socket", attaching);
             }
             String host = split[0];
             int port = Integer.parseInt(split[1]);
             socket = new Socket(host, port);
-            ReflLogger.setSocket(socket);
+            ReflLogger.setSocket(socket, onlineBufferSize, onlineDropWhenFull);
         }
 
         if (outPath == null || outPath.isEmpty()) {
@@ -95,66 +329,56 @@ public class Agent {
         File outDir = new File(outPath);
         if (outDir.exists()) {
             if (!outDir.isDirectory()) {
-                System.err.println(outDir + "is not a directory");
-                System.exit(1);
+                abort(outDir + " is not a directory", attaching);
             }
         } else {
             boolean res = outDir.mkdirs();
             if (!res) {
-                System.err.println("Cannot create directory " + outDir);
-                System.exit(1);
+                abort("Cannot create directory " + outDir, attaching);
             }
         }
 
-        final File logFile = new File(outDir, "refl.log");
+        File logFile = new File(outDir, ReflLogger.logFileName());
+        instrumentation = inst;
 
         dumpLoadedClasses(inst, outDir, dontDump, verbose);
 
         ReflLogger.setLogFile(logFile);
-
-        if (!transformations.isEmpty()) {
-            instrumentClassesForLogging(inst);
+        if (checkpointInterval > 0) {
+            ReflLogger.startCheckpointing(checkpointInterval * 1000L);
         }
+        if (jmx) {
+            registerMBean();
+        }
+        return logFile;
+    }
 
-        inst.addTransformer(classDumper, CAN_RETRANSFORM);
-
-        final boolean verboseOutput = verbose;
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-
-            @Override
-            public void run() {
-                ShutdownStatus.hasShutDown = true;
-                if (socket != null) {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace(err());
-                    }
-                }
-                classDumper.writeClassesToDisk();
-                ReflLogger.writeLogfileToDisk(verboseOutput, classDumper.newClasses);
+    private static void enableJfrEvents() {
+        //the classes that JFR defines for the events must be seen by the class dumper, in the order
+        //in which they are defined, as generated classes must be hashed after the classes they reference
+        if (jfrSamplingInterval > 0) {
+            JfrEvents.enable(jfrSamplingInterval);
+        }
+    }
 
-                String agentJarDir = agentJarFilePath.substring(0, agentJarFilePath.lastIndexOf('/'));
-                String version = Agent.class.getPackage().getImplementationVersion();
-                String dbJarPath = agentJarDir + '/' + "dbdumper-" + version + ".jar";
+    private static void abort(String message, boolean attaching) {
+        System.err.println(message);
+        if (attaching) {
+            //fail the attach request rather than terminating the VM the agent was attached to
+            throw new IllegalStateException(message);
+        }
+        System.exit(1);
+    }
 
-                try {
-                    File jarfile = new File(new URI(dbJarPath));
-                    if (jarfile.exists()) {
-                        System.out.println("Database JAR file found. Will attempt to dump log file to database.");
-                        DBDumper.dumpFileToDatabase(jarfile, logFile);
-                    }
-                } catch (URISyntaxException e) {
-                    e.printStackTrace(err());
-                }
+    private static void closeOnlineConnection() {
+        if (socket != null) {
+            ReflLogger.closeOnlineStream();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace(err());
             }
-
-        });
-
-        System.out.println("============================================================");
-
-        if (ERR_LOG != null) {
-            ERR_LOG.close();
+            socket = null;
         }
     }
 
@@ -189,32 +413,47 @@ public class Agent {
                 String path = (foundFile != null) ? foundFile.getAbsolutePath() : "<JAR FILE>!/" + propFileName;
                 System.out.println("Loaded properties from " + path);
             }
-            if (props.containsKey("count") && props.get("count").equals("true")) {
-                count = true;
-            }
-            if (props.containsKey("dontDumpClasses") && props.get("dontDumpClasses").equals("true")) {
-                dontDump = true;
-            }
-            if (props.containsKey("dontNormalize") && props.get("dontNormalize").equals("true")) {
-                dontNormalize = true;
-            }
-            if (props.containsKey("verbose") && props.get("verbose").equals("true")) {
-                verbose = true;
-            }
-            if (props.containsKey("useDeclaredTypes") && props.get("useDeclaredTypes").equals("true")) {
-                useDeclaredTypes = true;
-            }
-            if (props.containsKey("outDir")) {
-                outPath = (String) props.get("outDir");
-            }
-            if (props.containsKey("transformations")) {
-                transformations = (String) props.get("transformations");
+            //options not given get their defaults, also when the agent attaches again
+            count = props.containsKey("count") && props.get("count").equals("true");
+            dontDump = props.containsKey("dontDumpClasses") && props.get("dontDumpClasses").equals("true");
+            dumpIntoArchive = props.containsKey("classOutput") && props.get("classOutput").equals("jar");
+            dontNormalize = props.containsKey("dontNormalize") && props.get("dontNormalize").equals("true");
+            verbose = props.containsKey("verbose") && props.get("verbose").equals("true");
+            useDeclaredTypes = props.containsKey("useDeclaredTypes") && props.get("useDeclaredTypes").equals("true");
+            outPath = props.getProperty("outDir", "out");
+            transformations = props.getProperty("transformations", "");
+            checkpointInterval = intProperty(props, "checkpointInterval", 0);
+            callSiteMode = props.containsKey("instrumentationMode") && props.get("instrumentationMode").equals("callsite");
+            logFormat = props.getProperty("logFormat", "text");
+            maxEntries = intProperty(props, "maxEntries", 0);
+            statistics = props.containsKey("statistics") && props.get("statistics").equals("true");
+            jfrSamplingInterval = intProperty(props, "jfrSamplingInterval", 0);
+            contextDepth = intProperty(props, "contextDepth", 0);
+            countSamplingInterval = intProperty(props, "countSamplingInterval", 0);
+            countSamplingIntervals = new HashMap<String, Integer>();
+            String prefix = "countSamplingInterval.";
+            for (String key : props.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    countSamplingIntervals.put(key.substring(prefix.length()), intProperty(props, key, 0));
+                }
             }
+            includeContainers = props.getProperty("includeContainers", "");
+            excludeContainers = props.getProperty("excludeContainers", "");
+            includeTargets = props.getProperty("includeTargets", "");
+            excludeTargets = props.getProperty("excludeTargets", "");
+            jmx = props.containsKey("jmx") && props.get("jmx").equals("true");
+            attachDuration = intProperty(props, "attachDuration", 60);
+            onlineBufferSize = intProperty(props, "onlineBufferSize", 8192);
+            onlineDropWhenFull = !(props.containsKey("onlineOverflow") && props.get("onlineOverflow").equals("block"));
         } catch (IOException e) {
             throw new InternalError("Error loading default properties file: " + e.getMessage());
         }
     }
 
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        return props.containsKey(key) ? Integer.parseInt(((String) props.get(key)).trim()) : defaultValue;
+    }
+
     private static void copyPropFileIfMissing(String userPropFilePath) {
         File f = new File(userPropFilePath);
         if (!f.exists()) {
@@ -239,11 +478,15 @@ public class Agent {
     }
 
     private static void dumpLoadedClasses(Instrumentation inst, File outDir, boolean dontReallyDump, boolean verbose)
-            throws UnmodifiableClassException {
-        classDumper = new ClassDumper(outDir, dontReallyDump, verbose);
+            throws UnmodifiableClassException, IOException {
+        classDumper = new ClassDumper(outDir, dontReallyDump, dumpIntoArchive, verbose);
         inst.addTransformer(classDumper, CAN_RETRANSFORM);
         //dump all classes that are already loaded
         for (Class<?> c : inst.getAllLoadedClasses()) {
+            if (c.getName().indexOf('/') >= 0) {
+                //VM-anonymous classes, e.g. lambda forms; retransforming these crashes some VMs
+                continue;
+            }
             if (inst.isModifiableClass(c)) {
                 inst.retransformClasses(c);
             } else if (!c.isPrimitive() && !c.isArray() && (c.getPackage() == null || !c.getPackage().getName().startsWith("java.lang"))) {
@@ -253,17 +496,175 @@ public class Agent {
         inst.removeTransformer(classDumper);
     }
 
-    private static void instrumentClassesForLogging(Instrumentation inst) throws UnmodifiableClassException {
+    private static synchronized void instrumentClassesForLogging(Instrumentation inst) throws UnmodifiableClassException {
         ReflectionMonitor reflMonitor = new ReflectionMonitor(transformations, verbose);
+        List<Class<?>> affectedClasses = reflMonitor.getAffectedClasses();
+
+        List<Class<?>> restoredClasses = new ArrayList<>(instrumentedClasses);
+        restoredClasses.removeAll(affectedClasses);
+        if (!restoredClasses.isEmpty()) {
+            //classes that are no longer affected get their original bytes back
+            inst.retransformClasses(restoredClasses.toArray(new Class<?>[restoredClasses.size()]));
+        }
+
         inst.addTransformer(reflMonitor, CAN_RETRANSFORM);
+        try {
+            inst.retransformClasses(affectedClasses.toArray(new Class<?>[affectedClasses.size()]));
+        } finally {
+            inst.removeTransformer(reflMonitor);
+        }
+        instrumentedClasses = affectedClasses;
+    }
 
-        List<Class<?>> affectedClasses = reflMonitor.getAffectedClasses();
-        inst.retransformClasses(affectedClasses.toArray(new Class<?>[affectedClasses.size()]));
+    private static synchronized List<String> transformationNames() {
+        List<String> names = new ArrayList<>();
+        for (String name : transformations.trim().split("\\s+")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
 
-        inst.removeTransformer(reflMonitor);
+    /**
+     * Adds or removes the given transformation and retransforms the JDK classes accordingly.
+     * Returns false if the transformation already was in the requested state.
+     */
+    private static synchronized boolean setTransformationEnabled(String className, boolean on) throws UnmodifiableClassException {
+        if (instrumentation == null || classDumper == null) {
+            throw new IllegalStateException("The agent is not active.");
+        }
+        List<String> names = transformationNames();
+        if (names.contains(className) == on) {
+            return false;
+        }
+        if (on && callSiteMode && CallSiteMonitor.withoutReplacedTransformations(className).isEmpty()) {
+            throw new IllegalArgumentException(className + " is covered by call-site instrumentation.");
+        }
+        if (on) {
+            names.add(className);
+        } else {
+            names.remove(className);
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            joined.append(name).append(' ');
+        }
+        String previous = transformations;
+        transformations = joined.toString().trim();
+        //the agent's own reflective calls must not be logged
+        ReflLogger.enteringReflectionAPI();
+        try {
+            instrumentClassesForLogging(instrumentation);
+        } catch (RuntimeException | UnmodifiableClassException e) {
+            transformations = previous;
+            throw e;
+        } finally {
+            ReflLogger.leavingReflectionAPI();
+        }
+        return true;
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Agent(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace(err());
+        }
+    }
+
+    @Override
+    public boolean isLoggingEnabled() {
+        return ReflLogger.isEnabled();
+    }
+
+    @Override
+    public void setLoggingEnabled(boolean enabled) {
+        ReflLogger.setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isStatisticsEnabled() {
+        return HookStatistics.isEnabled();
+    }
+
+    @Override
+    public void setStatisticsEnabled(boolean enabled) {
+        HookStatistics.setEnabled(enabled);
+    }
+
+    @Override
+    public Map<String, Long> getCallsPerKind() {
+        return HookStatistics.callsPerKind();
+    }
+
+    @Override
+    public long getHookNanos() {
+        return HookStatistics.nanos();
+    }
+
+    @Override
+    public int getDistinctEntries() {
+        return ReflLogger.numberOfEntries();
+    }
+
+    @Override
+    public int getDistinctCallSites() {
+        return ReflLogger.numberOfCallSites();
+    }
+
+    @Override
+    public long getClassDumperNanos() {
+        ClassDumper dumper = classDumper;
+        return dumper == null ? 0 : dumper.getTransformNanos();
+    }
+
+    @Override
+    public long getHasherNanos() {
+        ClassDumper dumper = classDumper;
+        return dumper == null ? 0 : dumper.getHashNanos();
+    }
+
+    @Override
+    public long getClassDumperRetainedBytes() {
+        ClassDumper dumper = classDumper;
+        return dumper == null ? 0 : dumper.getRetainedBytes();
+    }
+
+    @Override
+    public long getDroppedOnlineLines() {
+        return ReflLogger.droppedOnlineLines();
+    }
+
+    @Override
+    public List<String> getTransformations() {
+        return transformationNames();
+    }
+
+    @Override
+    public void enableTransformation(String className) throws UnmodifiableClassException {
+        setTransformationEnabled(className, true);
+    }
+
+    @Override
+    public void disableTransformation(String className) throws UnmodifiableClassException {
+        setTransformationEnabled(className, false);
+    }
+
+    @Override
+    public void flushLog() {
+        ReflLogger.flushLogfile();
     }
 
     private static void appendRtJarToBootClassPath(Instrumentation inst) throws URISyntaxException, IOException {
+        if (rtJarAppended) {
+            //attached again; the classes of the earlier attach are still in use
+            return;
+        }
         URL locationOfAgent = Agent.class.getResource("/de/bodden/tamiflex/playout/rt/ReflLogger.class");
         if (locationOfAgent == null) {
             System.err.println("Support library for reflection log not found on classpath.");
@@ -273,6 +674,7 @@ public class Agent {
         URI uri = new URI(agentJarFilePath);
         JarFile jarFile = new JarFile(new File(uri));
         inst.appendToBootstrapClassLoaderSearch(jarFile);
+        rtJarAppended = true;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,68 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of the Play-Out agent, registered as {@value Agent#OBJECT_NAME}
+ * if the jmx property is set. Call counts and hook times are only collected while statistics
+ * are enabled; all times are in nanoseconds.
+ */
+public interface AgentMXBean {
+
+    boolean isLoggingEnabled();
+
+    void setLoggingEnabled(boolean enabled);
+
+    boolean isStatisticsEnabled();
+
+    void setStatisticsEnabled(boolean enabled);
+
+    /**
+     * Number of hook calls per kind, e.g. "Method.invoke"; kinds without calls are omitted.
+     */
+    Map<String, Long> getCallsPerKind();
+
+    long getHookNanos();
+
+    int getDistinctEntries();
+
+    int getDistinctCallSites();
+
+    long getClassDumperNanos();
+
+    long getHasherNanos();
+
+    long getClassDumperRetainedBytes();
+
+    long getDroppedOnlineLines();
+
+    List<String> getTransformations();
+
+    /**
+     * Instruments the JDK for the given transformation, e.g.
+     * de.bodden.tamiflex.playout.transformation.method.MethodInvokeTransformation.
+     */
+    void enableTransformation(String className) throws UnmodifiableClassException;
+
+    /**
+     * Retransforms the JDK classes affected by the given transformation without it.
+     */
+    void disableTransformation(String className) throws UnmodifiableClassException;
+
+    /**
+     * Merges the log entries found so far into the log file.
+     */
+    void flushLog();
+}
@@ -0,0 +1,259 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import de.bodden.tamiflex.playout.rt.CallSiteFilter;
+import de.bodden.tamiflex.playout.rt.CallSites;
+import de.bodden.tamiflex.playout.transformation.clazz.ClassForNameTransformation;
+import de.bodden.tamiflex.playout.transformation.clazz.ClassNewInstanceTransformation;
+import de.bodden.tamiflex.playout.transformation.constructor.ConstructorNewInstanceTransformation;
+import de.bodden.tamiflex.playout.transformation.method.MethodInvokeTransformation;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Instruments the reflective call sites of application classes, as an alternative to
+ * instrumenting the reflection API itself (see {@link ReflectionMonitor}). Each call to
+ * <code>Class.newInstance</code>, <code>Constructor.newInstance</code> or <code>Method.invoke</code>
+ * is preceded by a call to a hook that receives the site's id from {@link CallSites}, so that
+ * no stack walk is needed to find the caller. Hence, these calls are logged even if they throw,
+ * e.g. if the invoked method throws an exception, which the application may well catch.
+ * (Instrumenting the reflection API logs calls only when they return normally.)
+ * Calls to <code>Class.forName</code> are followed by their hook, which needs the loaded
+ * class; calls that throw a <code>ClassNotFoundException</code> load no class that could be logged.
+ * Reflective calls within the JDK are not instrumented and hence cost nothing.
+ *
+ * The original call is left in place, as these methods are caller-sensitive. Arguments
+ * that the hook needs are kept on the operand stack rather than in new locals, so that
+ * the instrumented code needs no new stack map frames.
+ *
+ * The ASM version used cannot read classes whose constant pool contains method handles,
+ * method types or dynamically computed constants, i.e., classes using invokedynamic, such
+ * as lambdas or string concatenation since Java 9. Such classes are left as they are, and
+ * their reflective calls are not logged.
+ */
+public class CallSiteMonitor implements ClassFileTransformer {
+
+    private static final String LOGGER = "de/bodden/tamiflex/playout/rt/ReflLogger";
+
+    /**
+     * The instruments whose kinds of calls this monitor covers instead.
+     */
+    public static final List<String> REPLACED_TRANSFORMATIONS = Arrays.asList(
+            ClassForNameTransformation.class.getName(),
+            ClassNewInstanceTransformation.class.getName(),
+            ConstructorNewInstanceTransformation.class.getName(),
+            MethodInvokeTransformation.class.getName());
+
+    //constant pool tags that ASM 3.2 does not know
+    private static final int CONSTANT_METHOD_HANDLE = 15, CONSTANT_METHOD_TYPE = 16,
+            CONSTANT_DYNAMIC = 17, CONSTANT_INVOKE_DYNAMIC = 18;
+
+    //classes in these packages are not instrumented
+    private static final String[] EXCLUDED_PACKAGES = {
+        "java/", "javax/", "sun/", "com/sun/", "jdk/", "de/bodden/tamiflex/", "org/objectweb/asm/"
+    };
+
+    /**
+     * Returns the given whitespace-separated list of instruments without those replaced by this monitor.
+     */
+    public static String withoutReplacedTransformations(String transformations) {
+        StringBuilder result = new StringBuilder();
+        for (String className : transformations.trim().split("\\s+")) {
+            if (!className.isEmpty() && !REPLACED_TRANSFORMATIONS.contains(className)) {
+                result.append(className).append(' ');
+            }
+        }
+        return result.toString().trim();
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, final String className,
+            Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) throws IllegalClassFormatException {
+        //JDK classes are loaded by the bootstrap loader
+        if (loader == null || className == null || isExcluded(className)) {
+            return null;
+        }
+
+        try {
+            if (usesDynamicConstants(classfileBuffer)) {
+                warnOfUninstrumentedClass(className);
+                return null;
+            }
+            final ClassReader creader = new ClassReader(classfileBuffer);
+            final ClassWriter writer = new ClassWriter(creader, ClassWriter.COMPUTE_MAXS);
+            final List<String> sites = new ArrayList<>();
+            ClassVisitor visitor = new ClassAdapter(writer) {
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    return new CallSiteInstrumenter(super.visitMethod(access, name, desc, signature, exceptions), className, name, sites);
+                }
+            };
+
+            //frames are kept, as the instrumentation does not change the stack at any branch target
+            creader.accept(visitor, 0);
+            return sites.isEmpty() ? null : writer.toByteArray();
+        } catch (RuntimeException e) {
+            //an exception would be lost in the VM anyway, so leave the class as it is
+            System.err.println("WARNING: Cannot instrument class " + className + ", whose reflective calls will not be logged: " + e);
+            e.printStackTrace(Agent.err());
+            return null;
+        }
+    }
+
+    private static volatile boolean warnedOfUninstrumentedClass;
+
+    private static void warnOfUninstrumentedClass(String className) {
+        if (!warnedOfUninstrumentedClass) {
+            warnedOfUninstrumentedClass = true;
+            System.err.println("WARNING: Call-site mode cannot instrument classes that use invokedynamic, such as " + className
+                    + "; reflective calls within these classes are not logged. Use instrumentationMode = jdk to log them.");
+        }
+    }
+
+    /**
+     * Tells whether the given class file's constant pool has entries that ASM 3.2 cannot
+     * read, which only classes of version 51 (Java 7) or later can have. Also returns
+     * <code>true</code> for any other unknown entries.
+     */
+    static boolean usesDynamicConstants(byte[] classfile) {
+        int majorVersion = readUnsignedShort(classfile, 6);
+        if (majorVersion < 51) {
+            return false;
+        }
+        int count = readUnsignedShort(classfile, 8);
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            switch (classfile[offset]) {
+            case 1: //Utf8
+                offset += 3 + readUnsignedShort(classfile, offset + 1);
+                break;
+            case 3: //Integer
+            case 4: //Float
+            case 9: //Fieldref
+            case 10: //Methodref
+            case 11: //InterfaceMethodref
+            case 12: //NameAndType
+                offset += 5;
+                break;
+            case 5: //Long
+            case 6: //Double, which also take the next slot
+                offset += 9;
+                i++;
+                break;
+            case 7: //Class
+            case 8: //String
+            case 19: //Module
+            case 20: //Package
+                offset += 3;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+            default:
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int readUnsignedShort(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+    private static boolean isExcluded(String className) {
+        for (String prefix : EXCLUDED_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        //calls in classes filtered out by the user would not be logged anyway
+        return !CallSiteFilter.acceptsContainerClass(className.replace('/', '.'));
+    }
+
+    private static class CallSiteInstrumenter extends MethodAdapter {
+
+        private final String className;
+        private final String methodName;
+        private final List<String> sites;
+        private int lineNumber = -1;
+
+        CallSiteInstrumenter(MethodVisitor mv, String className, String methodName, List<String> sites) {
+            super(mv);
+            this.className = className;
+            this.methodName = methodName;
+            this.sites = sites;
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            lineNumber = line;
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+            if (opcode == INVOKESTATIC && owner.equals("java/lang/Class") && name.equals("forName")) {
+                //[name ...] -> [class]
+                super.visitMethodInsn(opcode, owner, name, desc);
+                mv.visitInsn(DUP);
+                hook("classForNameAt", "(Ljava/lang/Class;I)V");
+            } else if (opcode == INVOKEVIRTUAL && owner.equals("java/lang/Class") && name.equals("newInstance") && desc.equals("()Ljava/lang/Object;")) {
+                //[class] -> [class class] -> hook -> [class]
+                mv.visitInsn(DUP);
+                hook("classNewInstanceAt", "(Ljava/lang/Class;I)V");
+                super.visitMethodInsn(opcode, owner, name, desc);
+            } else if (opcode == INVOKEVIRTUAL && owner.equals("java/lang/reflect/Constructor") && name.equals("newInstance")) {
+                //[ctor args] -> [args ctor] -> [ctor args ctor] -> hook -> [ctor args]
+                mv.visitInsn(SWAP);
+                mv.visitInsn(DUP_X1);
+                hook("constructorNewInstanceAt", "(Ljava/lang/reflect/Constructor;I)V");
+                super.visitMethodInsn(opcode, owner, name, desc);
+            } else if (opcode == INVOKEVIRTUAL && owner.equals("java/lang/reflect/Method") && name.equals("invoke")) {
+                //[m recv args] -> [args m recv args] -> [args m recv] -> [m recv args m recv] -> hook -> [m recv args]
+                mv.visitInsn(DUP_X2);
+                mv.visitInsn(POP);
+                mv.visitInsn(DUP2_X1);
+                hook("methodInvokeAt", "(Ljava/lang/reflect/Method;Ljava/lang/Object;I)V");
+                super.visitMethodInsn(opcode, owner, name, desc);
+            } else {
+                super.visitMethodInsn(opcode, owner, name, desc);
+            }
+        }
+
+        private void hook(String hookName, String hookDesc) {
+            int id = CallSites.register(className, methodName, lineNumber);
+            sites.add(hookName);
+            if (id <= Short.MAX_VALUE) {
+                mv.visitIntInsn(SIPUSH, id);
+            } else {
+                mv.visitLdcInsn(id);
+            }
+            mv.visitMethodInsn(INVOKESTATIC, LOGGER, hookName, hookDesc);
+        }
+    }
+}
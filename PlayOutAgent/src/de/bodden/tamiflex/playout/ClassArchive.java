@@ -0,0 +1,354 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes dumped classes into a single JAR file instead of one file per class, which is much
+ * faster on network file systems and container overlays. The archive can be put on the class
+ * path of Soot, and the Play-In agent reads it from its input directory (see
+ * <code>de.bodden.tamiflex.playin.ClassReplacer</code>).
+ *
+ * Entries are compressed in parallel on all cores, and written in the order in which they were
+ * added; at most a few entries per core are held in memory at once. As
+ * {@link java.util.zip.ZipOutputStream} can only compress entries itself, one after another,
+ * this class writes the zip format directly, using Zip64 end records if there are more than
+ * 65535 entries. Classes of an existing archive that were not dumped again are kept. The new
+ * archive is written next to the old one and then replaces it.
+ *
+ * Classes can be added by several threads at once.
+ */
+public class ClassArchive {
+
+    public static final String FILE_NAME = "classes.jar";
+
+    private static final int LOCAL_HEADER = 0x04034b50, CENTRAL_HEADER = 0x02014b50, END = 0x06054b50;
+    private static final int ZIP64_END = 0x06064b50, ZIP64_LOCATOR = 0x07064b50;
+    private static final int VERSION = 20, ZIP64_VERSION = 45;
+    //names are UTF-8
+    private static final int FLAGS = 0x0800;
+
+    private static class CompressedEntry {
+
+        final byte[] name;
+        final int method;
+        final long crc;
+        final int size;
+        final byte[] data;
+        final int compressedSize;
+        long offset;
+
+        CompressedEntry(byte[] name, int method, long crc, int size, byte[] data, int compressedSize) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.compressedSize = compressedSize;
+        }
+    }
+
+    private final File archiveFile;
+
+    private final File tempFile;
+
+    private final OutputStream out;
+
+    private final ExecutorService compressors;
+
+    private final int maxPending;
+
+    //entries being compressed, in the order in which they were added
+    private final ArrayDeque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+
+    //written entries, without their data
+    private final List<CompressedEntry> written = new ArrayList<>();
+
+    private final Set<String> names = new HashSet<>();
+
+    //names in the archive written by a previous run
+    private final Set<String> oldNames = new HashSet<>();
+
+    private final int dosTime, dosDate;
+
+    private long position;
+
+    public ClassArchive(File outDir) throws IOException {
+        this.archiveFile = new File(outDir, FILE_NAME);
+        this.tempFile = new File(outDir, FILE_NAME + ".tmp");
+        oldNames.addAll(entryNames(outDir));
+        this.out = new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16);
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.maxPending = 4 * threads;
+        this.compressors = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TamiFlex class archive compressor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        Calendar now = Calendar.getInstance();
+        dosTime = (now.get(Calendar.HOUR_OF_DAY) << 11) | (now.get(Calendar.MINUTE) << 5) | (now.get(Calendar.SECOND) >> 1);
+        dosDate = ((now.get(Calendar.YEAR) - 1980) << 9) | ((now.get(Calendar.MONTH) + 1) << 5) | now.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Returns the names of the entries in the archive in the given directory, which are of the
+     * form <code>internal/class/Name.class</code>; empty if there is no archive.
+     */
+    public static Set<String> entryNames(File outDir) throws IOException {
+        Set<String> names = new HashSet<>();
+        File archiveFile = new File(outDir, FILE_NAME);
+        if (archiveFile.exists()) {
+            try (ZipFile archive = new ZipFile(archiveFile)) {
+                Enumeration<? extends ZipEntry> entries = archive.entries();
+                while (entries.hasMoreElements()) {
+                    names.add(entries.nextElement().getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Adds the given class, whose name is in internal format. Returns <code>true</code> if the
+     * class was not in the archive before.
+     */
+    public synchronized boolean add(String className, byte[] bytes) throws IOException {
+        String name = className + ".class";
+        if (!names.add(name)) {
+            return false;
+        }
+        submit(name, bytes);
+        return !oldNames.contains(name);
+    }
+
+    private void submit(final String name, final byte[] bytes) throws IOException {
+        if (pending.size() >= maxPending) {
+            write(pending.removeFirst());
+        }
+        pending.addLast(compressors.submit(new Callable<CompressedEntry>() {
+            @Override
+            public CompressedEntry call() {
+                return compress(name, bytes);
+            }
+        }));
+    }
+
+    private static CompressedEntry compress(String name, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[bytes.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (length >= bytes.length) {
+                //not worth compressing
+                return new CompressedEntry(nameBytes, ZipEntry.STORED, crc.getValue(), bytes.length, bytes, bytes.length);
+            }
+            return new CompressedEntry(nameBytes, ZipEntry.DEFLATED, crc.getValue(), bytes.length, buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void write(Future<CompressedEntry> future) throws IOException {
+        CompressedEntry entry;
+        try {
+            entry = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing classes", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot compress class", e.getCause());
+        }
+        if (position > 0xFFFFFFFFL) {
+            throw new IOException("Class archive exceeds 4 GB");
+        }
+        entry.offset = position;
+        ByteBuffer header = header(30 + entry.name.length);
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) VERSION);
+        putEntryFields(header, entry);
+        header.putShort((short) 0); //extra field length
+        header.put(entry.name);
+        writeBuffer(header);
+        out.write(entry.data, 0, entry.compressedSize);
+        position += entry.compressedSize;
+        //the data is not needed anymore
+        CompressedEntry withoutData = new CompressedEntry(entry.name, entry.method, entry.crc, entry.size, null, entry.compressedSize);
+        withoutData.offset = entry.offset;
+        written.add(withoutData);
+    }
+
+    //flags up to the name length, which are the same in local and central headers
+    private void putEntryFields(ByteBuffer header, CompressedEntry entry) {
+        header.putShort((short) FLAGS);
+        header.putShort((short) entry.method);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt(entry.compressedSize);
+        header.putInt(entry.size);
+        header.putShort((short) entry.name.length);
+    }
+
+    /**
+     * Copies the classes of the previous archive that were not added, writes the central
+     * directory, and replaces the previous archive.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            copyOldClasses();
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst());
+            }
+            writeCentralDirectory();
+            out.close();
+        } finally {
+            compressors.shutdownNow();
+        }
+        //readers see either the old or the new archive, never none
+        Files.move(tempFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void copyOldClasses() throws IOException {
+        if (oldNames.isEmpty()) {
+            return;
+        }
+        try (ZipFile old = new ZipFile(archiveFile)) {
+            Enumeration<? extends ZipEntry> entries = old.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !names.add(entry.getName())) {
+                    continue;
+                }
+                try (InputStream is = old.getInputStream(entry)) {
+                    submit(entry.getName(), readFully(is));
+                }
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) > -1) {
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = position;
+        for (CompressedEntry entry : written) {
+            ByteBuffer header = header(46 + entry.name.length);
+            header.putInt(CENTRAL_HEADER);
+            header.putShort((short) VERSION); //made by
+            header.putShort((short) VERSION); //needed to extract
+            putEntryFields(header, entry);
+            header.putShort((short) 0); //extra field length
+            header.putShort((short) 0); //comment length
+            header.putShort((short) 0); //disk number
+            header.putShort((short) 0); //internal attributes
+            header.putInt(0); //external attributes
+            header.putInt((int) entry.offset);
+            header.put(entry.name);
+            writeBuffer(header);
+        }
+        long size = position - start;
+
+        boolean zip64 = written.size() >= 0xFFFF || start >= 0xFFFFFFFFL;
+        if (zip64) {
+            long zip64End = position;
+            ByteBuffer end64 = header(56 + 20);
+            end64.putInt(ZIP64_END);
+            end64.putLong(44); //size of the remaining record
+            end64.putShort((short) ZIP64_VERSION);
+            end64.putShort((short) ZIP64_VERSION);
+            end64.putInt(0); //this disk
+            end64.putInt(0); //disk with the central directory
+            end64.putLong(written.size());
+            end64.putLong(written.size());
+            end64.putLong(size);
+            end64.putLong(start);
+            end64.putInt(ZIP64_LOCATOR);
+            end64.putInt(0); //disk with the zip64 end record
+            end64.putLong(zip64End);
+            end64.putInt(1); //number of disks
+            writeBuffer(end64);
+        }
+
+        ByteBuffer end = header(22);
+        end.putInt(END);
+        end.putShort((short) 0); //this disk
+        end.putShort((short) 0); //disk with the central directory
+        int count = zip64 ? 0xFFFF : written.size();
+        end.putShort((short) count);
+        end.putShort((short) count);
+        end.putInt((int) size);
+        end.putInt(zip64 ? 0xFFFFFFFF : (int) start);
+        end.putShort((short) 0); //comment length
+        writeBuffer(end);
+    }
+
+    private static ByteBuffer header(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        position += buffer.position();
+    }
+}
@@ -0,0 +1,140 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The digests of the class files that the {@link ClassDumper} wrote into the output directory,
+ * kept in an index file across runs, so that class files whose bytes did not change are not
+ * written again. The index has one line per class, of the form <code>digest className</code>.
+ *
+ * Instances are thread-safe.
+ */
+public class ClassDigests {
+
+    public static final String FILE_NAME = ".classes.digests";
+
+    private final File indexFile;
+
+    //class name -> SHA-1 digest, in hexadecimal
+    private final Map<String, String> digests = new HashMap<>();
+
+    private boolean changed;
+
+    /**
+     * Reads the index in the given directory, if there is one.
+     */
+    public ClassDigests(File outDir) {
+        indexFile = new File(outDir, FILE_NAME);
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    digests.put(line.substring(space + 1), line.substring(0, space));
+                }
+            }
+        } catch (IOException e) {
+            //an incomplete index only means that more classes are written
+            System.err.println("WARNING: Cannot read " + indexFile + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the digest of the given class file.
+     */
+    public String digest(byte[] classfileBuffer) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("SHA-1 not supported");
+        }
+        byte[] digest = sha1.digest(classfileBuffer);
+        StringBuilder b = new StringBuilder(2 * digest.length);
+        for (byte d : digest) {
+            b.append(Character.forDigit((d >> 4) & 0xF, 16));
+            b.append(Character.forDigit(d & 0xF, 16));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Tells whether a class file with the given name has been written before, with any bytes.
+     */
+    public synchronized boolean contains(String className) {
+        return digests.containsKey(className);
+    }
+
+    /**
+     * Tells whether the class file with the given name that was written before has the given digest.
+     */
+    public synchronized boolean isUnchanged(String className, String digest) {
+        return digest.equals(digests.get(className));
+    }
+
+    /**
+     * Records that the class file with the given name and digest has been written.
+     */
+    public synchronized void put(String className, String digest) {
+        if (!digest.equals(digests.put(className, digest))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the index, if it changed. The index is replaced as a whole, so that a run that
+     * is killed while writing it leaves the previous index.
+     */
+    public synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                w.write(entry.getValue());
+                w.write(' ');
+                w.write(entry.getKey());
+                w.write('\n');
+            }
+        } catch (IOException e) {
+            e.printStackTrace(Agent.err());
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("WARNING: Cannot write " + indexFile + ": " + e);
+            return;
+        }
+        changed = false;
+    }
+}
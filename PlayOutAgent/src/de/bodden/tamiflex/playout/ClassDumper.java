@@ -12,6 +12,7 @@ package de.bodden.tamiflex.playout;
 
 import static de.bodden.tamiflex.normalizer.Hasher.*;
 import de.bodden.tamiflex.normalizer.NameExtractor;
+import de.bodden.tamiflex.playout.rt.JfrEvents;
 import static de.bodden.tamiflex.playout.rt.ShutdownStatus.hasShutDown;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -19,11 +20,21 @@ import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ClassDumper implements ClassFileTransformer {
 
@@ -33,23 +44,39 @@ public class ClassDumper implements ClassFileTransformer {
     protected final File outDir;
 
     /**
-     * It is important that this be a <i>linked</i> hash map because we need to
-     * generate hash numbers for the classes in the order in which they are
-     * loaded. This is because a generated class <i>a</i> may reference other
-     * generated classes, and when determining a hash code for <i>a</i>, the
-     * hash code for those referenced classes must already have been computed.
+     * The store keeps the classes in the order in which they are loaded. A generated
+     * class <i>a</i> may reference other generated classes, and when determining a
+     * hash code for <i>a</i>, the hash code for those referenced classes must already
+     * have been computed. The Hasher orders classes by their references, but falls
+     * back to load order for classes that reference each other. The bytes are spilled
+     * to disk, so that they do not occupy the heap until the end of the run. Null once
+     * the classes have been written.
      */
-    protected final LinkedHashMap<String, byte[]> classNameToBytes = new LinkedHashMap<>();
+    protected ClassStore classStore;
+
+    //classes are recorded under the read lock, as the store takes puts from several threads;
+    //hashing and writing take the write lock, so that they see all classes recorded so far
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final boolean verbose;
 
     private final boolean dontReallyDump;
 
+    //write classes into a ClassArchive instead of one file per class
+    private final boolean useArchive;
+
     public int newClasses;
 
-    public ClassDumper(File outDir, boolean dontReallyDump, boolean verbose) {
+    private final AtomicLong transformNanos = new AtomicLong();
+
+    private final AtomicLong hashNanos = new AtomicLong();
+
+    public ClassDumper(File outDir, boolean dontReallyDump, boolean useArchive, boolean verbose) throws IOException {
         this.outDir = outDir;
+        //a file of its own, as several VMs may dump into the same directory at once
+        this.classStore = new ClassStore(File.createTempFile(".classes", ".spill", outDir));
         this.dontReallyDump = dontReallyDump;
+        this.useArchive = useArchive;
         this.verbose = verbose;
         this.newClasses = 0;
         if (PRINT_CLASS_LOADERS) {
@@ -65,90 +92,280 @@ public class ClassDumper implements ClassFileTransformer {
         if (className == null) {
             className = NameExtractor.extractName(classfileBuffer);
         }
+        long start = System.nanoTime();
+        Object event = JfrEvents.beginClassDump();
+        try {
+            record(loader, className, protectionDomain, classfileBuffer);
+        } finally {
+            transformNanos.addAndGet(System.nanoTime() - start);
+            JfrEvents.commitClassDump(event, className, classfileBuffer.length);
+        }
+        return null;
+    }
+
+    private void record(ClassLoader loader, String className, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
         if (PRINT_CLASS_LOADERS) {
             ClassLoadInfoPrinter.printLoaderAndParents("ClassDumper", className.replace("/", "."), loader);
         }
 
         if (hasShutDown) {
-            return null;
+            return;
         }
         if (className.startsWith(Agent.PKGNAME)) {
-            return null;
+            return;
+        }
+        if (dontReallyDump && !containsGeneratedClassName(className)) {
+            //only generated classes are needed, for hashing
+            return;
         }
 
-        byte[] oldBytes;
-        synchronized (this) {
-            oldBytes = classNameToBytes.put(className, classfileBuffer);
-            if (PRINT_LOADED_CLASSES) {
-                ClassLoadInfoPrinter.print("[ClassDumper] " + className + " (v" + classfileBuffer[7] + ") ");
-                try {
-                    ClassLoadInfoPrinter.println("loaded from " + protectionDomain.getCodeSource().getLocation());
-                } catch (NullPointerException ex) {
-                    ClassLoadInfoPrinter.println("loaded from (null)");
-                }
+        boolean replacedDifferentClass;
+        lock.readLock().lock();
+        try {
+            if (classStore == null) {
+                return;
             }
+            replacedDifferentClass = classStore.put(className, classfileBuffer);
+        } catch (IOException e) {
+            System.err.println("WARNING: Cannot store class " + className + ", which will not be dumped: " + e);
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (PRINT_LOADED_CLASSES) {
+            String location;
+            try {
+                location = String.valueOf(protectionDomain.getCodeSource().getLocation());
+            } catch (NullPointerException ex) {
+                location = "(null)";
+            }
+            //a single line, so that lines of classes recorded at the same time do not interleave
+            ClassLoadInfoPrinter.println("[ClassDumper] " + className + " (v" + classfileBuffer[7] + ") loaded from " + location);
         }
 
-        if (verbose && oldBytes != null && !Arrays.equals(classfileBuffer, oldBytes)) {
+        if (verbose && replacedDifferentClass) {
             System.err.println("WARNING: There exist two different classes with name " + className);
         }
+    }
 
-        return null;
+    /**
+     * Returns the time spent in {@link #transform}, in nanoseconds.
+     */
+    public long getTransformNanos() {
+        return transformNanos.get();
     }
 
+    /**
+     * Returns the time spent hashing the names of generated classes, in nanoseconds.
+     */
+    public long getHashNanos() {
+        return hashNanos.get();
+    }
+
+    /**
+     * Returns the number of bytes of the class files spilled to disk until they are written out.
+     */
+    public long getRetainedBytes() {
+        lock.readLock().lock();
+        try {
+            return classStore == null ? 0 : classStore.spilledBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hashes the names of generated classes and writes all classes; see
+     * {@link #hashGeneratedClasses()} and {@link #writeHashedClasses()}.
+     */
     public void writeClassesToDisk() {
-        synchronized (this) {
-            Set<Entry<String, byte[]>> entrySet = classNameToBytes.entrySet();
-            for (Map.Entry<String, byte[]> entry : entrySet) {
-                String className = entry.getKey();
-                byte[] classfileBuffer = entry.getValue();
+        hashGeneratedClasses();
+        writeHashedClasses();
+    }
 
+    /**
+     * Computes the hashed names of the generated classes, hashing classes that do not reference
+     * each other in parallel. The log can be written once this is done.
+     */
+    public void hashGeneratedClasses() {
+        lock.writeLock().lock();
+        try {
+            if (classStore == null) {
+                return;
+            }
+            //the Hasher falls back to load order for classes that reference each other
+            Map<String, byte[]> generatedClasses = new LinkedHashMap<>();
+            for (int i = 0; i < classStore.size(); i++) {
+                String className = classStore.className(i);
                 if (containsGeneratedClassName(className)) {
-                    generateHashNumber(className, classfileBuffer);
-                    className = hashedClassNameForGeneratedClassName(className);
-                    classfileBuffer = replaceGeneratedClassNamesByHashedNames(classfileBuffer);
+                    try {
+                        generatedClasses.put(className, classStore.bytes(i));
+                    } catch (IOException e) {
+                        e.printStackTrace(Agent.err());
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            generateHashNumbers(generatedClasses, new HashingListener() {
+                @Override
+                public Object beginHashing(String className) {
+                    return JfrEvents.beginClassHashing();
                 }
 
-                if (dontReallyDump) {
-                    continue; //don't dump
+                @Override
+                public void endHashing(Object event, String className, String hashedName) {
+                    JfrEvents.commitClassHashing(event, className, hashedName);
                 }
-                File localOutDir = outDir;
+            });
+            hashNanos.addAndGet(System.nanoTime() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                localOutDir.mkdirs();
+    /**
+     * Replaces the names of generated classes by their hashed names and writes the classes,
+     * in parallel on all cores. Classes whose bytes did not change since the last run into the
+     * same output directory are not written again. {@link #hashGeneratedClasses()} must have
+     * been called before.
+     */
+    public void writeHashedClasses() {
+        lock.writeLock().lock();
+        try {
+            if (classStore == null) {
+                return;
+            }
+            if (!dontReallyDump) {
+                writeInParallel(classStore);
+            }
+            classStore.close();
+            classStore = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                String simpleName = className;
+    private void writeInParallel(final ClassStore store) {
+        final ClassDigests digests = new ClassDigests(outDir);
+        final AtomicInteger newClassCount = new AtomicInteger();
+        //the archive is only rewritten if a class changed; it keeps the classes not added
+        Set<String> names = null;
+        if (useArchive) {
+            try {
+                names = ClassArchive.entryNames(outDir);
+            } catch (IOException e) {
+                System.err.println("WARNING: Cannot read " + ClassArchive.FILE_NAME + ", dumping classes into single files: " + e);
+            }
+        }
+        final Set<String> archivedNames = names;
+        final ClassArchive[] archive = new ClassArchive[1];
 
-                if (className.contains("/")) {
-                    String packageName = className.substring(0, className.lastIndexOf('/'));
-                    simpleName = className.substring(className.lastIndexOf('/') + 1);
+        //not shared, as classes are written only once, when the agent shuts down
+        ExecutorService writers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TamiFlex class writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<?>> written = new ArrayList<>(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            final int index = i;
+            written.add(writers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    String className = store.className(index);
+                    byte[] classfileBuffer = store.bytes(index);
+                    if (containsGeneratedClassName(className)) {
+                        long start = System.nanoTime();
+                        className = hashedClassNameForGeneratedClassName(className);
+                        classfileBuffer = replaceGeneratedClassNamesByHashedNames(classfileBuffer);
+                        hashNanos.addAndGet(System.nanoTime() - start);
+                    }
 
-                    localOutDir = new File(localOutDir, packageName);
-                    localOutDir.mkdirs();
+                    String digest = digests.digest(classfileBuffer);
+                    if (archivedNames != null) {
+                        if (digests.isUnchanged(className, digest) && archivedNames.contains(className + ".class")) {
+                            return null;
+                        }
+                        ClassArchive a;
+                        synchronized (archive) {
+                            if (archive[0] == null) {
+                                archive[0] = new ClassArchive(outDir);
+                            }
+                            a = archive[0];
+                        }
+                        if (a.add(className, classfileBuffer)) {
+                            newClassCount.incrementAndGet();
+                        }
+                        digests.put(className, digest);
+                    } else {
+                        File outFile = classFile(className);
+                        if (digests.isUnchanged(className, digest) && outFile.exists()) {
+                            return null;
+                        }
+                        if (!digests.contains(className) && !outFile.exists()) {
+                            newClassCount.incrementAndGet();
+                        }
+                        if (writeClassFile(outFile, classfileBuffer)) {
+                            digests.put(className, digest);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : written) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace(Agent.err());
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("WARNING: Interrupted while writing classes; some classes were not written.");
+        } finally {
+            writers.shutdownNow();
+        }
 
-                String fileName = simpleName + ".class";
+        if (archive[0] != null) {
+            try {
+                archive[0].close();
+            } catch (IOException e) {
+                e.printStackTrace(Agent.err());
+            }
+        }
+        digests.save();
+        newClasses += newClassCount.get();
+    }
 
-                File outFile = new File(localOutDir, fileName);
-                if (outFile.exists()) {
-                    outFile.delete();
-                } else {
-                    newClasses++;
-                }
-                FileOutputStream fos = null;
+    private File classFile(String className) {
+        return new File(outDir, className + ".class");
+    }
+
+    /**
+     * Writes the given class file, replacing the file's previous contents. Returns
+     * <code>false</code> if the file could not be written.
+     */
+    private boolean writeClassFile(File outFile, byte[] classfileBuffer) {
+        outFile.getParentFile().mkdirs();
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(outFile);
+            fos.write(classfileBuffer);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(Agent.err());
+            return false;
+        } finally {
+            if (fos != null) {
                 try {
-                    outFile.createNewFile();
-                    fos = new FileOutputStream(outFile);
-                    fos.write(classfileBuffer);
+                    fos.close();
                 } catch (IOException e) {
                     e.printStackTrace(Agent.err());
-                } finally {
-                    if (fos != null) {
-                        try {
-                            fos.close();
-                        } catch (IOException e) {
-                            e.printStackTrace(Agent.err());
-                        }
-                    }
                 }
             }
         }
@@ -0,0 +1,203 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the class files seen by the {@link ClassDumper} until they are written out. The bytes
+ * are appended to a spill file as classes are loaded, and only a compact index is kept in
+ * memory: per class its name, and the position, length and hash code of its bytes. The index
+ * remembers the order in which classes were first stored, which the Hasher depends on (see
+ * {@link ClassDumper}). A class that is stored again keeps its position in that order, while
+ * its new bytes are appended. Bytes that are already in the spill file, for instance the same
+ * class defined by several class loaders, are not appended again but shared.
+ *
+ * Several threads can put classes at once. Their bytes are written to the spill file outside
+ * the store's lock, each into a region reserved for it. Classes should only be read back once
+ * no more classes are put.
+ */
+public class ClassStore {
+
+    private final File spillFile;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final Map<String, Integer> classNameToSlot = new HashMap<>();
+
+    //length and hash code of stored bytes -> their position in the spill file
+    private final Map<Long, Long> contentToPosition = new HashMap<>();
+
+    //slot -> class name, position in the spill file, length, and hash code of the bytes; slots are in load order
+    private String[] classNames = new String[1024];
+    private long[] positions = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] hashCodes = new int[1024];
+
+    //per slot, the number of the put that stored its current bytes
+    private long[] putNumbers = new long[1024];
+
+    private int size;
+
+    private long spilledBytes;
+
+    private long puts;
+
+    /**
+     * Creates a store that spills into the given file, which must not be used by anyone else.
+     * Its contents are replaced, and it is deleted when the store is closed.
+     */
+    public ClassStore(File spillFile) throws IOException {
+        this.spillFile = spillFile;
+        spillFile.deleteOnExit();
+        file = new RandomAccessFile(spillFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+    }
+
+    /**
+     * Appends the given class file to the store. Returns <code>true</code> if a different
+     * class file has been stored under the same name before.
+     */
+    public boolean put(String className, byte[] bytes) throws IOException {
+        int hashCode = Arrays.hashCode(bytes);
+        Long content = ((long) bytes.length << 32) | (hashCode & 0xFFFFFFFFL);
+        long putNumber;
+        Long stored;
+        synchronized (this) {
+            putNumber = ++puts;
+            stored = contentToPosition.get(content);
+        }
+        //registered bytes have been written completely, so they can be compared without the lock
+        long position;
+        if (stored != null && Arrays.equals(bytes, read(stored, bytes.length))) {
+            position = stored;
+        } else {
+            synchronized (this) {
+                position = spilledBytes;
+                spilledBytes += bytes.length;
+            }
+            write(bytes, position);
+        }
+
+        synchronized (this) {
+            //only shared once written; if two threads stored the same bytes, the first one is shared
+            if (!contentToPosition.containsKey(content)) {
+                contentToPosition.put(content, position);
+            }
+            Integer slot = classNameToSlot.get(className);
+            boolean replacedDifferentClass = false;
+            if (slot == null) {
+                slot = size++;
+                if (slot == classNames.length) {
+                    grow();
+                }
+                classNames[slot] = className;
+                classNameToSlot.put(className, slot);
+            } else {
+                replacedDifferentClass = lengths[slot] != bytes.length || hashCodes[slot] != hashCode;
+                if (putNumbers[slot] > putNumber) {
+                    //a later put of the same class finished first; keep its bytes
+                    return replacedDifferentClass;
+                }
+            }
+            positions[slot] = position;
+            lengths[slot] = bytes.length;
+            hashCodes[slot] = hashCode;
+            putNumbers[slot] = putNumber;
+            return replacedDifferentClass;
+        }
+    }
+
+    private void write(byte[] bytes, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void grow() {
+        int length = classNames.length * 2;
+        classNames = Arrays.copyOf(classNames, length);
+        positions = Arrays.copyOf(positions, length);
+        lengths = Arrays.copyOf(lengths, length);
+        hashCodes = Arrays.copyOf(hashCodes, length);
+        putNumbers = Arrays.copyOf(putNumbers, length);
+    }
+
+    /**
+     * Returns the number of distinct classes stored.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes written to the spill file, including class files that
+     * have been replaced since, but counting shared bytes only once.
+     */
+    public synchronized long spilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Returns the name of the class with the given index; indices are in the order in which
+     * classes were first stored.
+     */
+    public synchronized String className(int index) {
+        return classNames[index];
+    }
+
+    /**
+     * Reads the current bytes of the class with the given index back from the spill file.
+     */
+    public byte[] bytes(int index) throws IOException {
+        long position;
+        int length;
+        synchronized (this) {
+            position = positions[index];
+            length = lengths[index];
+        }
+        return read(position, length);
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Spill file " + spillFile + " is truncated.");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes and deletes the spill file.
+     */
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace(Agent.err());
+        }
+        spillFile.delete();
+    }
+}
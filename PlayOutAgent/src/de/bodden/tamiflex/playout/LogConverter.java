@@ -0,0 +1,80 @@
+/* *****************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import de.bodden.tamiflex.playout.rt.LogFormat;
+import de.bodden.tamiflex.playout.rt.LogReader;
+import de.bodden.tamiflex.playout.rt.LogWriter;
+import de.bodden.tamiflex.playout.rt.PersistedLogEntry;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts log files between the text and the binary format. Entries are kept in their order,
+ * and converting a log back yields the same entries with the same counts. It does not always
+ * yield the same file, though: lines of older logs that lack the trailing columns (line number,
+ * metadata, count) are written with all columns, and empty lines are dropped.
+ */
+public class LogConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java -cp poa.jar " + LogConverter.class.getName() + " <input log> <output log> [text|binary]");
+            System.err.println("The format of the input log is detected; by default, the output log is written in the other format.");
+            System.exit(1);
+        }
+        File in = new File(args[0]);
+        File out = new File(args[1]);
+        LogFormat outFormat = args.length > 2 ? LogFormat.forName(args[2]) : null;
+        long entries = convert(in, out, outFormat);
+        System.out.println("Converted " + entries + " log entries from " + in + " to " + out + ".");
+    }
+
+    /**
+     * Converts the log <code>in</code> into the log <code>out</code>, written in the given format.
+     * If the format is <code>null</code>, the format other than the input's is used.
+     * Returns the number of entries converted.
+     */
+    public static long convert(File in, File out, LogFormat outFormat) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(in), 1 << 16);
+        try {
+            LogFormat inFormat = LogFormat.detect(is);
+            if (outFormat == null) {
+                outFormat = inFormat == LogFormat.TEXT ? LogFormat.BINARY : LogFormat.TEXT;
+            }
+            LogReader reader = inFormat.newReader(is, true);
+            OutputStream os = new FileOutputStream(out);
+            try {
+                LogWriter writer = outFormat.newWriter(os);
+                long entries = 0;
+                PersistedLogEntry entry;
+                while ((entry = reader.read()) != null) {
+                    writer.write(entry);
+                    entries++;
+                }
+                writer.flush();
+                return entries;
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private LogConverter() {
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class CallSiteMonitorTest {
+
+	static class Reflective {
+		Object call() throws Exception {
+			return Object.class.newInstance();
+		}
+	}
+
+	static class WithLambda {
+		Callable<Object> call() {
+			return () -> Object.class.newInstance();
+		}
+	}
+
+	@Test
+	public void instrumentsReflectiveCalls() throws Exception {
+		byte[] bytes = bytes(Reflective.class);
+		assertFalse(CallSiteMonitor.usesDynamicConstants(bytes));
+		assertNotNull(transform(Reflective.class, bytes));
+	}
+
+	@Test
+	public void skipsClassesUsingInvokedynamic() throws Exception {
+		byte[] bytes = bytes(WithLambda.class);
+		assertTrue(CallSiteMonitor.usesDynamicConstants(bytes));
+		assertNull(transform(WithLambda.class, bytes));
+	}
+
+	@Test
+	public void oldClassesHaveNoDynamicConstants() {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "p/Old", null, "java/lang/Object", null);
+		writer.visitField(Opcodes.ACC_PRIVATE, "d", "D", null, 1.5d).visitEnd();
+		writer.visitEnd();
+		assertFalse(CallSiteMonitor.usesDynamicConstants(writer.toByteArray()));
+	}
+
+	@Test
+	public void unreadableClassesAreLeftAsTheyAre() throws Exception {
+		byte[] bytes = bytes(Reflective.class);
+		byte[] truncated = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		assertNull(transform(Reflective.class, truncated));
+	}
+
+	/**
+	 * Transforms the given class under another name, as classes of the agent's own packages
+	 * are not instrumented.
+	 */
+	private static byte[] transform(Class<?> c, byte[] bytes) throws Exception {
+		return new CallSiteMonitor().transform(c.getClassLoader(), "p/" + c.getSimpleName(), null, null, bytes);
+	}
+
+	private static byte[] bytes(Class<?> c) throws IOException {
+		InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class");
+		try {
+			byte[] bytes = new byte[in.available()];
+			int n = 0;
+			while (n < bytes.length) {
+				n += in.read(bytes, n, bytes.length - n);
+			}
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassArchiveTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keepsClassesOfThePreviousArchive() throws IOException {
+		File outDir = folder.getRoot();
+		ClassArchive archive = new ClassArchive(outDir);
+		assertTrue(archive.add("a/A", bytes(1, 500)));
+		assertTrue(archive.add("b/B", bytes(2, 500)));
+		archive.close();
+
+		archive = new ClassArchive(outDir);
+		assertFalse(archive.add("a/A", bytes(3, 500)));
+		assertTrue(archive.add("c/C", bytes(4, 500)));
+		archive.close();
+
+		assertFalse(new File(outDir, ClassArchive.FILE_NAME + ".tmp").exists());
+		ZipFile zip = new ZipFile(new File(outDir, ClassArchive.FILE_NAME));
+		try {
+			assertEquals(3, zip.size());
+			assertArrayEquals(bytes(3, 500), read(zip, "a/A.class"));
+			assertArrayEquals(bytes(2, 500), read(zip, "b/B.class"));
+			assertArrayEquals(bytes(4, 500), read(zip, "c/C.class"));
+		} finally {
+			zip.close();
+		}
+	}
+
+	@Test
+	public void writesZip64EndRecordsForManyClasses() throws IOException {
+		File outDir = folder.getRoot();
+		int classes = 0xFFFF + 100;
+		ClassArchive archive = new ClassArchive(outDir);
+		for(int i=0; i<classes; i++) {
+			archive.add("p/C"+i, bytes(i, 20));
+		}
+		archive.close();
+
+		assertEquals(classes, ClassArchive.entryNames(outDir).size());
+		ZipFile zip = new ZipFile(new File(outDir, ClassArchive.FILE_NAME));
+		try {
+			assertEquals(classes, zip.size());
+			assertArrayEquals(bytes(0, 20), read(zip, "p/C0.class"));
+			assertArrayEquals(bytes(classes-1, 20), read(zip, "p/C"+(classes-1)+".class"));
+		} finally {
+			zip.close();
+		}
+
+		//the previous Zip64 archive is read back when classes are added again
+		archive = new ClassArchive(outDir);
+		assertTrue(archive.add("q/Q", bytes(-1, 20)));
+		archive.close();
+		assertEquals(classes+1, ClassArchive.entryNames(outDir).size());
+	}
+
+	private static byte[] read(ZipFile zip, String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		InputStream is = zip.getInputStream(entry);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while((read=is.read(buffer))>-1) {
+				bos.write(buffer, 0, read);
+			}
+			return bos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	private static byte[] bytes(int seed, int length) {
+		byte[] bytes = new byte[length];
+		for(int i=0; i<length; i++) {
+			bytes[i] = (byte) (seed*31+i*(seed%7+1));
+		}
+		return bytes;
+	}
+}
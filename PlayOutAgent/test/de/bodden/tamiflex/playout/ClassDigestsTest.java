@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassDigestsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void digestsSurviveSave() {
+		File outDir = folder.getRoot();
+		ClassDigests digests = new ClassDigests(outDir);
+		String a = digests.digest(new byte[] { 1, 2, 3 });
+		String b = digests.digest(new byte[] { 4, 5, 6 });
+		digests.put("a/A", a);
+		digests.put("b/B", b);
+		digests.save();
+
+		ClassDigests read = new ClassDigests(outDir);
+		assertTrue(read.contains("a/A"));
+		assertTrue(read.isUnchanged("a/A", a));
+		assertTrue(read.isUnchanged("b/B", b));
+		assertFalse(read.isUnchanged("a/A", b));
+		assertFalse(read.contains("c/C"));
+	}
+
+	@Test
+	public void saveReplacesIndex() throws IOException {
+		File outDir = folder.getRoot();
+		ClassDigests digests = new ClassDigests(outDir);
+		digests.put("a/A", digests.digest(new byte[] { 1 }));
+		digests.save();
+
+		digests = new ClassDigests(outDir);
+		String changed = digests.digest(new byte[] { 2 });
+		digests.put("a/A", changed);
+		digests.save();
+
+		assertFalse(new File(outDir, ClassDigests.FILE_NAME + ".tmp").exists());
+		assertEquals(1, Files.readAllLines(new File(outDir, ClassDigests.FILE_NAME).toPath()).size());
+		assertTrue(new ClassDigests(outDir).isUnchanged("a/A", changed));
+	}
+
+	@Test
+	public void unchangedDigestsAreNotSaved() {
+		File outDir = folder.getRoot();
+		ClassDigests digests = new ClassDigests(outDir);
+		String a = digests.digest(new byte[] { 1 });
+		digests.put("a/A", a);
+		digests.save();
+		File index = new File(outDir, ClassDigests.FILE_NAME);
+
+		digests = new ClassDigests(outDir);
+		assertTrue(index.delete());
+		digests.put("a/A", a);
+		digests.save();
+		//nothing changed, so the index was not written again
+		assertFalse(index.exists());
+	}
+
+	@Test
+	public void digestIsHexadecimalSha1() {
+		ClassDigests digests = new ClassDigests(folder.getRoot());
+		assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", digests.digest(new byte[] { 'a', 'b', 'c' }));
+	}
+}
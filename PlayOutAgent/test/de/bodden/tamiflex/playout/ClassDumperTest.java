@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassDumperTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void dumpersIntoTheSameDirectorySpillIntoTheirOwnFiles() throws IOException {
+		File outDir = folder.getRoot();
+		ClassDumper first = new ClassDumper(outDir, true, false, false);
+		ClassDumper second = new ClassDumper(outDir, true, false, false);
+		Set<String> spillFiles = spillFiles(outDir);
+		assertEquals(2, spillFiles.size());
+
+		//closing one store leaves the other's file alone
+		first.writeClassesToDisk();
+		Set<String> remaining = spillFiles(outDir);
+		assertEquals(1, remaining.size());
+		assertFalse(remaining.equals(spillFiles));
+
+		second.writeClassesToDisk();
+		assertEquals(0, spillFiles(outDir).size());
+	}
+
+	private static Set<String> spillFiles(File dir) {
+		return new HashSet<String>(Arrays.asList(dir.list(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(".spill");
+			}
+		})));
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ClassStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new ClassStore(new File(folder.getRoot(), "spill"));
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void keepsFirstStoredOrderAndLatestBytes() throws IOException {
+		assertFalse(store.put("a/A", bytes(1, 10)));
+		assertFalse(store.put("b/B", bytes(2, 10)));
+		assertTrue(store.put("a/A", bytes(3, 10)));
+
+		assertEquals(2, store.size());
+		assertEquals("a/A", store.className(0));
+		assertEquals("b/B", store.className(1));
+		assertArrayEquals(bytes(3, 10), store.bytes(0));
+		assertArrayEquals(bytes(2, 10), store.bytes(1));
+	}
+
+	@Test
+	public void sharesEqualBytes() throws IOException {
+		store.put("a/A", bytes(1, 100));
+		store.put("b/B", bytes(1, 100));
+		assertFalse(store.put("a/A", bytes(1, 100)));
+		assertEquals(100, store.spilledBytes());
+		assertArrayEquals(bytes(1, 100), store.bytes(1));
+	}
+
+	@Test
+	public void concurrentPutsStoreAllClasses() throws Exception {
+		final int threads = 8, classesPerThread = 200;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> puts = new ArrayList<Future<Void>>();
+			for(int t=0; t<threads; t++) {
+				final int thread = t;
+				puts.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						for(int i=0; i<classesPerThread; i++) {
+							//every other class has the same bytes in all threads
+							int seed = i%2==0 ? i : thread*classesPerThread+i;
+							store.put("c/C"+thread+"_"+i, bytes(seed, 50+i));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> put : puts) {
+				put.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(threads*classesPerThread, store.size());
+		Set<String> names = new HashSet<String>();
+		for(int index=0; index<store.size(); index++) {
+			String name = store.className(index);
+			names.add(name);
+			int thread = Integer.parseInt(name.substring(3, name.indexOf('_')));
+			int i = Integer.parseInt(name.substring(name.indexOf('_')+1));
+			int seed = i%2==0 ? i : thread*classesPerThread+i;
+			assertArrayEquals(name, bytes(seed, 50+i), store.bytes(index));
+		}
+		assertEquals(threads*classesPerThread, names.size());
+	}
+
+	private static byte[] bytes(int seed, int length) {
+		byte[] bytes = new byte[length];
+		for(int i=0; i<length; i++) {
+			bytes[i] = (byte) (seed*31+i);
+		}
+		return bytes;
+	}
+}
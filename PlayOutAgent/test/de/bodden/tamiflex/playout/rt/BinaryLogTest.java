@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryLogTest {
+
+	private static final String[] LINES = {
+		"Class.forName;a.A;a.A.main;12;;1",
+		"Class.forName;a.A;a.A.main;13;;",
+		"Class.newInstance;a.A;b.B.<init>;;;300",
+		"Method.invoke;<a.A: void run(int,java.lang.String[])>;a.A.main;14;isAccessible=true;" + Long.MAX_VALUE,
+		"Field.get*;<a.A: int x>;a.A.main;15;isAccessible=false,context=c.C.call:7|d.D.call:8;2",
+		"Class.forName;\u00e4.\u00d6\u20ac;\u00e4.\u00d6\u20ac.m;1;;1",
+	};
+
+	@Test
+	public void roundTrip() throws IOException {
+		List<PersistedLogEntry> entries = parse(LINES);
+		List<PersistedLogEntry> read = read(write(entries), true);
+		assertEquals(Arrays.asList(LINES), lines(read));
+	}
+
+	@Test
+	public void stringsAreStoredOnce() throws IOException {
+		List<PersistedLogEntry> one = parse("Method.invoke;<a.A: void run()>;a.A.main;14;isAccessible=true;1");
+		List<PersistedLogEntry> many = new ArrayList<PersistedLogEntry>();
+		for(int i=0; i<100; i++) many.addAll(one);
+		int sizeOfOne = write(one).length;
+		int sizeOfMany = write(many).length;
+		//all later records only refer to the string table
+		assertTrue(sizeOfMany < sizeOfOne + 99*10);
+	}
+
+	@Test
+	public void countsAreDroppedUnlessKept() throws IOException {
+		List<PersistedLogEntry> read = read(write(parse(LINES)), false);
+		for (PersistedLogEntry entry : read) {
+			assertEquals(0, entry.getCount());
+		}
+	}
+
+	@Test
+	public void shortLinesComeBackWithAllColumns() throws IOException {
+		List<PersistedLogEntry> read = read(write(parse("Class.forName;a.A;a.A.main", "Class.forName;a.A;a.A.main;3")), true);
+		assertEquals(Arrays.asList("Class.forName;a.A;a.A.main;;;", "Class.forName;a.A;a.A.main;3;;"), lines(read));
+	}
+
+	@Test
+	public void detectsFormat() throws IOException {
+		assertTrue(BinaryLogReader.hasMagic(new ByteArrayInputStream(write(parse(LINES)))));
+		assertFalse(BinaryLogReader.hasMagic(new ByteArrayInputStream(LINES[0].getBytes("UTF-8"))));
+		assertFalse(BinaryLogReader.hasMagic(new ByteArrayInputStream(new byte[0])));
+	}
+
+	@Test
+	public void truncatedLogFails() throws IOException {
+		byte[] bytes = write(parse(LINES));
+		InputStream is = new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length-3));
+		LogReader reader = LogFormat.BINARY.newReader(is, true);
+		try {
+			while(reader.read()!=null) {}
+			fail("truncated log was read completely");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void emptyLog() throws IOException {
+		LogReader reader = LogFormat.BINARY.newReader(new ByteArrayInputStream(write(new ArrayList<PersistedLogEntry>())), true);
+		assertNull(reader.read());
+	}
+
+	private static byte[] write(List<PersistedLogEntry> entries) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		LogWriter writer = LogFormat.BINARY.newWriter(bos);
+		for (PersistedLogEntry entry : entries) {
+			writer.write(entry);
+		}
+		writer.flush();
+		return bos.toByteArray();
+	}
+
+	private static List<PersistedLogEntry> read(byte[] bytes, boolean keepCounts) throws IOException {
+		InputStream is = new ByteArrayInputStream(bytes);
+		assertEquals(LogFormat.BINARY, LogFormat.detect(is));
+		LogReader reader = LogFormat.BINARY.newReader(is, keepCounts);
+		List<PersistedLogEntry> entries = new ArrayList<PersistedLogEntry>();
+		PersistedLogEntry entry;
+		while((entry=reader.read())!=null) {
+			entries.add(entry);
+		}
+		reader.close();
+		return entries;
+	}
+
+	private static List<PersistedLogEntry> parse(String... lines) {
+		List<PersistedLogEntry> entries = new ArrayList<PersistedLogEntry>();
+		for (String line : lines) {
+			entries.add(PersistedLogEntry.parse(line, true));
+		}
+		return entries;
+	}
+
+	private static List<String> lines(List<PersistedLogEntry> entries) {
+		List<String> lines = new ArrayList<String>();
+		for (PersistedLogEntry entry : entries) {
+			lines.add(entry.toString());
+		}
+		return lines;
+	}
+}
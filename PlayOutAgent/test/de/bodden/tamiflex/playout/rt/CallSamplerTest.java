@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CallSamplerTest {
+
+	@After
+	public void tearDown() {
+		CallSampler.configure(0, Collections.<String,Integer>emptyMap());
+	}
+
+	@Test
+	public void intervalOfKindOverridesDefault() {
+		Map<String,Integer> intervals = new HashMap<String,Integer>();
+		intervals.put("Method.invoke", 100);
+		intervals.put("Field.get*", 1);
+		CallSampler.configure(10, intervals);
+
+		assertTrue(CallSampler.isSampled(Kind.MethodInvoke));
+		assertFalse(CallSampler.isSampled(Kind.FieldGet));
+		assertTrue(CallSampler.isSampled(Kind.ClassForName));
+		assertEquals(1, CallSampler.weight(Kind.FieldGet));
+		int weight = CallSampler.weight(Kind.MethodInvoke);
+		assertTrue(weight==0 || weight==100);
+	}
+
+	@Test
+	public void intervalOfKindAppliesWithoutDefault() {
+		CallSampler.configure(0, Collections.singletonMap("Class.forName", 50));
+		assertTrue(CallSampler.isSampled(Kind.ClassForName));
+		assertFalse(CallSampler.isSampled(Kind.MethodInvoke));
+	}
+
+	@Test
+	public void arrayNewInstanceIsNeverSampled() {
+		CallSampler.configure(10, Collections.singletonMap("Array.newInstance", 10));
+		assertFalse(CallSampler.isSampled(Kind.ArrayNewInstance));
+	}
+}
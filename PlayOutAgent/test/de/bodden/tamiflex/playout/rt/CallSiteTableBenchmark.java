@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput of {@link ReflLogger#pullOrCreateEntry} against the number of threads
+ * that log reflective calls at the same time, once as it is, and once behind a single global lock,
+ * which is how the call-site table used to be guarded. Like the logging hooks, every call creates
+ * a new entry, looks it up, and increments its count. Most calls hit call sites that have been
+ * logged before, as in a program that has warmed up.
+ *
+ * Usage: <code>CallSiteTableBenchmark [secondsPerRun [maxThreads]]</code>. Throughput can only
+ * scale up to the number of cores of the machine.
+ */
+public class CallSiteTableBenchmark {
+
+	private static final int CALL_SITES = 4096;
+
+	private static final int CONTAINER_METHODS = 256;
+
+	private static final Object GLOBAL_LOCK = new Object();
+
+	private static final int[] containerMethods = new int[CONTAINER_METHODS];
+
+	private static final int[] targetClasses = new int[CALL_SITES];
+
+	public static void main(String[] args) throws InterruptedException {
+		double seconds = args.length>0 ? Double.parseDouble(args[0]) : 2;
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = args.length>1 ? Integer.parseInt(args[1]) : Math.max(8, 2*cores);
+
+		for(int i=0; i<CONTAINER_METHODS; i++) containerMethods[i] = SymbolTable.id("bench.Container"+i+".method");
+		for(int i=0; i<CALL_SITES; i++) targetClasses[i] = SymbolTable.id("bench.Target"+i);
+		ReflLogger.setMustCount(true);
+
+		//warm up both variants, so that all call sites are known and the code is compiled
+		run(1, seconds, false);
+		run(1, seconds, true);
+
+		System.out.println("Cores: "+cores);
+		System.out.println("threads\tlock-free ops/s\tglobal lock ops/s");
+		for(int threads=1; threads<=maxThreads; threads*=2) {
+			long lockFree = run(threads, seconds, false);
+			long locked = run(threads, seconds, true);
+			System.out.println(threads+"\t"+lockFree+"\t"+locked);
+		}
+	}
+
+	private static long run(int threads, double seconds, final boolean globalLock) throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] operations = new long[threads];
+		Thread[] workers = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final int index = t;
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long ops = 0;
+					int site = index*7919;
+					while(!stop.get()) {
+						for(int i=0; i<1000; i++) {
+							site = (site+1) % CALL_SITES;
+							int containerMethod = containerMethods[site % CONTAINER_METHODS];
+							TargetClassLogEntry newEntry = new TargetClassLogEntry(containerMethod, site, null, Kind.ClassForName, targetClasses[site]);
+							RuntimeLogEntry entry;
+							if(globalLock) {
+								synchronized(GLOBAL_LOCK) {
+									entry = ReflLogger.pullOrCreateEntry(containerMethod, newEntry);
+									entry.incrementCounter();
+								}
+							} else {
+								entry = ReflLogger.pullOrCreateEntry(containerMethod, newEntry);
+								entry.incrementCounter();
+							}
+						}
+						ops += 1000;
+					}
+					operations[index] = ops;
+				}
+			};
+			workers[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		Thread.sleep((long) (seconds*1000));
+		stop.set(true);
+		for(Thread worker: workers) worker.join();
+		long nanos = System.nanoTime()-begin;
+
+		long total = 0;
+		for(long ops: operations) total += ops;
+		return (long) (total*1e9/nanos);
+	}
+}
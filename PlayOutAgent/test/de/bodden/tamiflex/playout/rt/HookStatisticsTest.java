@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Map;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.bodden.tamiflex.playout.Agent;
+import de.bodden.tamiflex.playout.AgentMXBean;
+
+public class HookStatisticsTest {
+
+	@After
+	public void tearDown() {
+		HookStatistics.setEnabled(false);
+	}
+
+	@Test
+	public void callsPerKindAreKeyedByLabel() {
+		Map<String,Long> before = HookStatistics.callsPerKind();
+		HookStatistics.setEnabled(true);
+		HookStatistics.stop(Kind.FieldToString, HookStatistics.start());
+		HookStatistics.stop(Kind.FieldToString, HookStatistics.start());
+		HookStatistics.setEnabled(false);
+		HookStatistics.stop(Kind.FieldToString, HookStatistics.start());
+
+		assertEquals(calls(before, "Field.toString")+2, (long) HookStatistics.callsPerKind().get("Field.toString"));
+	}
+
+	@Test
+	public void managementBeanShowsCallsPerKind() throws Exception {
+		HookStatistics.setEnabled(true);
+		HookStatistics.stop(Kind.MethodToString, HookStatistics.start());
+		HookStatistics.setEnabled(false);
+
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		ObjectName name = new ObjectName(Agent.OBJECT_NAME);
+		server.registerMBean(new Agent(), name);
+		Map<String,Long> calls = JMX.newMXBeanProxy(server, name, AgentMXBean.class).getCallsPerKind();
+		assertEquals(HookStatistics.callsPerKind(), calls);
+		assertFalse(calls.isEmpty());
+	}
+
+	private static long calls(Map<String,Long> calls, String label) {
+		Long n = calls.get(label);
+		return n==null ? 0 : n;
+	}
+}
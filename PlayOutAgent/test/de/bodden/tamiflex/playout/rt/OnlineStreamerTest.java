@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class OnlineStreamerTest {
+
+	@Test
+	public void closeSendsAllQueuedLines() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OnlineStreamer streamer = new OnlineStreamer(out, 16, true);
+		streamer.send("a");
+		streamer.send("b");
+		assertEquals(0, streamer.close());
+		assertEquals("a\nb\n", out.toString());
+
+		streamer.send("c");
+		assertEquals(1, streamer.droppedLines());
+	}
+
+	@Test
+	public void linesQueuedAfterTheEndAreCountedAsDropped() throws Exception {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		final OnlineStreamer streamer = new OnlineStreamer(new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				writing.countDown();
+				try {
+					proceed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				sent.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+			}
+		}, 16, true);
+
+		//the sender blocks while sending the first line, so the end and later lines are taken in one batch
+		streamer.send("a");
+		writing.await();
+		Thread closer = new Thread() {
+			@Override
+			public void run() {
+				streamer.close();
+			}
+		};
+		closer.start();
+		Thread.sleep(500);
+		streamer.send("b");
+		streamer.send("c");
+		proceed.countDown();
+		closer.join();
+
+		assertEquals("a\n", sent.toString());
+		assertEquals(2, streamer.droppedLines());
+	}
+}
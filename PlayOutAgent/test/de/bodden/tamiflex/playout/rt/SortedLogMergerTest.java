@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SortedLogMergerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File logFile;
+
+	private boolean mustCount;
+
+	@Before
+	public void setUp() {
+		logFile = new File(folder.getRoot(), "refl.log");
+		mustCount = ReflLogger.mustCount();
+		ReflLogger.setMustCount(true);
+	}
+
+	@After
+	public void tearDown() {
+		ReflLogger.setMustCount(mustCount);
+	}
+
+	@Test
+	public void mergeIntoMissingLog() throws IOException {
+		List<PersistedLogEntry> newEntries = SortedLogMerger.mergeInto(logFile, LogFormat.TEXT,
+				entries("Class.forName;b.B;a.A.m;2;;1", "Class.forName;a.A;a.A.m;1;;2"));
+
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;;2", "Class.forName;b.B;a.A.m;2;;1"), lines(newEntries));
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;;2", "Class.forName;b.B;a.A.m;2;;1"), Files.readAllLines(logFile.toPath()));
+	}
+
+	@Test
+	public void mergeSumsCountsAndReturnsOnlyNewEntries() throws IOException {
+		write(LogFormat.TEXT, "Class.forName;a.A;a.A.m;1;;2", "Class.forName;c.C;a.A.m;3;;5");
+
+		List<PersistedLogEntry> newEntries = SortedLogMerger.mergeInto(logFile, LogFormat.TEXT,
+				entries("Class.forName;c.C;a.A.m;3;;1", "Class.forName;b.B;a.A.m;2;;1", "Class.forName;c.C;a.A.m;3;;1"));
+
+		assertEquals(lines("Class.forName;b.B;a.A.m;2;;1"), lines(newEntries));
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;;2", "Class.forName;b.B;a.A.m;2;;1", "Class.forName;c.C;a.A.m;3;;7"),
+				Files.readAllLines(logFile.toPath()));
+	}
+
+	@Test
+	public void mergeIntoUnsortedLogFallsBackToMemory() throws IOException {
+		write(LogFormat.TEXT, "Class.forName;c.C;a.A.m;3;;5", "Class.forName;a.A;a.A.m;1;;2");
+
+		List<PersistedLogEntry> newEntries = SortedLogMerger.mergeInto(logFile, LogFormat.TEXT,
+				entries("Class.forName;b.B;a.A.m;2;;1", "Class.forName;c.C;a.A.m;3;;1"));
+
+		assertEquals(lines("Class.forName;b.B;a.A.m;2;;1"), lines(newEntries));
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;;2", "Class.forName;b.B;a.A.m;2;;1", "Class.forName;c.C;a.A.m;3;;6"),
+				Files.readAllLines(logFile.toPath()));
+	}
+
+	@Test
+	public void mergeConvertsBinaryLogToText() throws IOException {
+		write(LogFormat.BINARY, "Class.forName;a.A;a.A.m;1;;2", "Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true;3");
+
+		SortedLogMerger.mergeInto(logFile, LogFormat.TEXT, entries("Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true;1"));
+
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;;2", "Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true;4"),
+				Files.readAllLines(logFile.toPath()));
+	}
+
+	@Test
+	public void mergeCombinesEstimatedAndExactCounts() throws IOException {
+		write(LogFormat.TEXT, "Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true,countEstimated;100");
+
+		List<PersistedLogEntry> newEntries = SortedLogMerger.mergeInto(logFile, LogFormat.TEXT,
+				entries("Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true;1", "Class.forName;a.A;a.A.m;1;countEstimated;10"));
+
+		//an estimated count stays estimated when exact counts are added, and vice versa
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;countEstimated;10"), lines(newEntries));
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;countEstimated;10", "Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true,countEstimated;101"),
+				Files.readAllLines(logFile.toPath()));
+
+		SortedLogMerger.mergeInto(logFile, LogFormat.TEXT, entries("Class.forName;a.A;a.A.m;1;;2"));
+		assertEquals(lines("Class.forName;a.A;a.A.m;1;countEstimated;12", "Method.invoke;<a.A: void run()>;a.A.m;4;isAccessible=true,countEstimated;101"),
+				Files.readAllLines(logFile.toPath()));
+	}
+
+	private void write(LogFormat format, String... lines) throws IOException {
+		FileOutputStream fos = new FileOutputStream(logFile);
+		try {
+			LogWriter writer = format.newWriter(fos);
+			for (PersistedLogEntry entry : entries(lines)) {
+				writer.write(entry);
+			}
+			writer.flush();
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static List<PersistedLogEntry> entries(String... lines) {
+		List<PersistedLogEntry> entries = new ArrayList<PersistedLogEntry>();
+		for (String line : lines) {
+			entries.add(PersistedLogEntry.parse(line, true));
+		}
+		return entries;
+	}
+
+	private static List<String> lines(String... lines) {
+		return Arrays.asList(lines);
+	}
+
+	private static List<String> lines(List<PersistedLogEntry> entries) {
+		List<String> lines = new ArrayList<String>();
+		for (PersistedLogEntry entry : entries) {
+			lines.add(entry.toString());
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Eric Bodden.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Eric Bodden - initial API and implementation
+ ******************************************************************************/
+package de.bodden.tamiflex.playout.rt;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reentrancy guard of {@link ReflLogger} in programs that start many short-lived
+ * virtual threads, each of which enters and leaves the runtime a number of times, nested, as
+ * when reflective calls are made from within reflectively invoked methods. The guard is run once
+ * as it is, and once as a <code>ThreadLocal&lt;Integer&gt;</code>, which is how it used to be
+ * kept, boxing the depth on every call. The heap retained after each round shows whether the
+ * threads' state goes away with them.
+ *
+ * Virtual threads are created reflectively, so that this class compiles on Java 8; on Java
+ * versions before 21, the benchmark prints a note and does nothing.
+ *
+ * Usage: <code>VirtualThreadBenchmark [threads [nestingDepth [rounds]]]</code>.
+ */
+public class VirtualThreadBenchmark {
+
+	private static final ThreadLocal<Integer> boxedDepth = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return 0;
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+		int depth = args.length>1 ? Integer.parseInt(args[1]) : 200;
+		int rounds = args.length>2 ? Integer.parseInt(args[2]) : 3;
+
+		if(newVirtualThreadExecutor()==null) {
+			System.out.println("Virtual threads need Java 21 or later, this is Java "+System.getProperty("java.version")+"; skipping.");
+			return;
+		}
+
+		System.out.println("Threads per round: "+threads+", nesting depth: "+depth);
+		System.out.println("round\tguard ms\tretained MB\tboxed guard ms\tretained MB");
+		for(int round=1; round<=rounds; round++) {
+			long retainedBefore = retainedBytes();
+			long guard = run(threads, depth, false);
+			long retainedGuard = retainedBytes()-retainedBefore;
+			retainedBefore = retainedBytes();
+			long boxed = run(threads, depth, true);
+			long retainedBoxed = retainedBytes()-retainedBefore;
+			System.out.println(round+"\t"+guard+"\t"+(retainedGuard>>20)+"\t"+boxed+"\t"+(retainedBoxed>>20));
+		}
+	}
+
+	/**
+	 * Runs the given number of virtual threads, and returns the time until all have finished,
+	 * in milliseconds.
+	 */
+	private static long run(int threads, final int depth, final boolean boxed) throws Exception {
+		ExecutorService executor = newVirtualThreadExecutor();
+		Runnable task = new Runnable() {
+			public void run() {
+				if(boxed) {
+					for(int i=0; i<depth; i++) boxedDepth.set(boxedDepth.get()+1);
+					for(int i=0; i<depth; i++) boxedDepth.set(boxedDepth.get()-1);
+				} else {
+					for(int i=0; i<depth; i++) ReflLogger.enteringReflectionAPI();
+					for(int i=0; i<depth; i++) ReflLogger.leavingReflectionAPI();
+				}
+			}
+		};
+		long begin = System.nanoTime();
+		for(int t=0; t<threads; t++) executor.execute(task);
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return (System.nanoTime()-begin)/1000000;
+	}
+
+	/**
+	 * Returns <code>Executors.newVirtualThreadPerTaskExecutor()</code>, or <code>null</code>
+	 * if this Java version has no virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static long retainedBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i=0; i<3; i++) System.gc();
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+}
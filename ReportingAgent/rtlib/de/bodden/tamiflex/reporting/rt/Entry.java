@@ -10,34 +10,43 @@ public class Entry {
 	
 	protected Status status;
 	
-	protected final Thread thread;
+	//the thread itself is not retained, as entries outlive it
+	protected final long threadId;
+
+	protected final String threadName;
 	
 	protected final String payload;
 
 	private final int perThreadTimeStamp;
 
+	//only holds the leading frames of the stack, see Reporter.NUM_STACK_FRAMES
 	private final StackTraceElement[] stackTrace;
+
+	private final int stackDepth;
 	
-	public Entry(int perThreadTimeStamp, StackTraceElement[] stackTrace, String payload) {
+	public Entry(int perThreadTimeStamp, StackTraceElement[] stackTrace, int stackDepth, String payload) {
 		this.perThreadTimeStamp = perThreadTimeStamp;
 		this.stackTrace = stackTrace;
+		this.stackDepth = stackDepth;
 		this.payload = payload;
-		this.thread = Thread.currentThread();
+		Thread thread = Thread.currentThread();
+		this.threadId = thread.getId();
+		this.threadName = thread.getName();
 		this.status = ATTEMPTED;
 	}
 	
 	@Override
 	public String toString() {
-		return status + ";" + thread.getId()+"-"+thread.getName() + ";" + payload;
+		return status + ";" + threadId+"-"+threadName + ";" + payload;
 	}
 	
 	public boolean matchesEarlierEntry(Entry earlierEntry) {
 		if(earlierEntry.perThreadTimeStamp>=perThreadTimeStamp) 
 			throw new IllegalArgumentException("not an earlier entry!");
-		if(earlierEntry.thread != thread) {
+		if(earlierEntry.threadId != threadId) {
 			throw new IllegalArgumentException("not an earlier entry! (different threads)");
 		}
-		return earlierEntry.status == ATTEMPTED && stackTrace.length == earlierEntry.stackTrace.length && payload.equals(earlierEntry.payload); 
+		return earlierEntry.status == ATTEMPTED && stackDepth == earlierEntry.stackDepth && payload.equals(earlierEntry.payload); 
 	}
 
 	public void markAsSucceeded() {
@@ -55,7 +64,7 @@ public class Entry {
 	}
 
 	public int getStackDepth() {
-		return stackTrace.length;
+		return stackDepth;
 	}
 	
 	public StackTraceElement[] getStackTrace() {
@@ -17,34 +17,67 @@ import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.bodden.tamiflex.reporting.rt.FrameResolver.Frame;
+import de.bodden.tamiflex.rt.StackFrames;
 
 
 public class ReflLogger {
 	
+	//frames skipped at the top of the stack when looking for the caller of the reflection API
+	private static final Set<String> SKIPPED_CLASS_NAMES = new HashSet<String>(Arrays.asList(
+			ReflLogger.class.getName(), Class.class.getName(), Method.class.getName(), Constructor.class.getName()));
+	
 	private static PrintWriter logger;
 	private static File logFile;
 	
+	static {
+		//set up stack access now, i.e., while the agent is being initialized
+		StackFrames.initialize();
+	}
+	
+	/**
+	 * The state of a single thread. Only entries of reflective calls that are still in
+	 * progress are kept here: once the outermost call of the thread has completed, all
+	 * its entries are known to have succeeded or failed and are moved to {@link #completedEntries}.
+	 * Hence, nothing refers to the state of a thread that has no reflective call in progress,
+	 * and the state goes away with its thread, which matters for programs that start millions
+	 * of (virtual) threads.
+	 */
 	private static class ThreadLocalState {
-		List<Entry> logEntries = new LinkedList<Entry>();
+		final List<Entry> logEntries = new ArrayList<Entry>();
+		//the leading frames of the stack above the current reflective call
 		StackTraceElement[] stackTrace;
+		int stackDepth;
 	}
 	
-	private static List<ThreadLocalState> perThreadStates = Collections.synchronizedList(new LinkedList<ReflLogger.ThreadLocalState>());
+	//entries whose success is known, in the order in which they were completed per thread
+	private static final Queue<Entry> completedEntries = new ConcurrentLinkedQueue<Entry>();
+
+	//states of threads with reflective calls in progress
+	private static final Set<ThreadLocalState> statesInProgress = Collections.newSetFromMap(new ConcurrentHashMap<ThreadLocalState,Boolean>());
 
-	private static ThreadLocal<ThreadLocalState> threadLocalState = new ThreadLocal<ReflLogger.ThreadLocalState>() {
+	private static final ThreadLocal<ThreadLocalState> threadLocalState = new ThreadLocal<ReflLogger.ThreadLocalState>() {
 		protected ThreadLocalState initialValue() {
-			ThreadLocalState state = new ThreadLocalState();
-			perThreadStates.add(state);
-			return state;
+			return new ThreadLocalState();
 		}
 	};
 	
 	public static void classNewInstance(boolean entering, Class<?> c) {
-		StackTraceElement frame = getInvokingFrame();
-		log(entering, frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassNewInstance,c.getName());
+		Frame frame = getInvokingFrame();
+		log(entering, frame.getContainerMethod(),frame.getLineNumber(),Kind.ClassNewInstance,c.getName());
 	}
 
 	private static void log(boolean entering, Object... toPrint) {
@@ -52,10 +85,11 @@ public class ReflLogger {
 		List<Entry> entries = state.logEntries;
 
 		if(entering) {
-			Entry entry = new Entry(entries.size(),state.stackTrace,flatten(toPrint));
+			Entry entry = new Entry(entries.size(),state.stackTrace,state.stackDepth,flatten(toPrint));
+			if(entries.isEmpty()) statesInProgress.add(state);
 			entries.add(entry);
 		} else {
-			Entry entry = new Entry(entries.size(),state.stackTrace,flatten(toPrint));
+			Entry entry = new Entry(entries.size(),state.stackTrace,state.stackDepth,flatten(toPrint));
 			boolean found = false;
 			for(int i = entries.size()-1; i>=0; i--) {
 				Entry other = entries.get(i);
@@ -71,6 +105,12 @@ public class ReflLogger {
 			if(!found) {
 				throw new IllegalStateException("closing entry without matching opening entry:" +entry);
 			} 
+			//if the outermost call has completed, so have all calls nested in it
+			if(!entries.get(0).successUnknown()) {
+				completedEntries.addAll(entries);
+				entries.clear();
+				statesInProgress.remove(state);
+			}
 		}
 		
 	}
@@ -88,22 +128,22 @@ public class ReflLogger {
 	}
 
 	public static void classForName(boolean entering, String typeName) {
-		StackTraceElement frame = getInvokingFrame();
-		log(entering,frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassForName,handleArrayTypes(typeName));
+		Frame frame = getInvokingFrame();
+		log(entering,frame.getContainerMethod(),frame.getLineNumber(),Kind.ClassForName,handleArrayTypes(typeName));
 	}
 
 	public static void classForName(boolean entering, String typeName, boolean initialize, ClassLoader classLoader) {
-		StackTraceElement frame = getInvokingFrame();
+		Frame frame = getInvokingFrame();
 		String classLoaderClassName = classLoader==null ? "null" : classLoader.getClass().getName();
-		log(entering,frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ClassForNameWithClassLoader,handleArrayTypes(typeName),initialize,classLoaderClassName);
+		log(entering,frame.getContainerMethod(),frame.getLineNumber(),Kind.ClassForNameWithClassLoader,handleArrayTypes(typeName),initialize,classLoaderClassName);
 	}
 
 	public static void constructorNewInstance(boolean entering, Constructor<?> c) {		
-		StackTraceElement frame = getInvokingFrame();
+		Frame frame = getInvokingFrame();
 		
 		String paramTypes = classesToTypeNames(c.getParameterTypes());
 		
-		log(entering, frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.ConstructorNewInstance,"void "+c.getDeclaringClass().getName()+".<init>"+paramTypes);
+		log(entering, frame.getContainerMethod(),frame.getLineNumber(),Kind.ConstructorNewInstance,"void "+c.getDeclaringClass().getName()+".<init>"+paramTypes);
 	}
 
 	public static void methodInvoke(boolean entering, Object receiver, Method m) {
@@ -124,9 +164,9 @@ public class ReflLogger {
 				error.printStackTrace();
 			}
 			
-			StackTraceElement frame = getInvokingFrame();
+			Frame frame = getInvokingFrame();
 			String paramTypes = classesToTypeNames(resolved.getParameterTypes());
-			log(entering,frame.getClassName()+"."+frame.getMethodName(),frame.getLineNumber(),Kind.MethodInvoke,getTypeName(resolved.getReturnType())+" "+resolved.getDeclaringClass().getName()+"."+resolved.getName()+paramTypes);
+			log(entering,frame.getContainerMethod(),frame.getLineNumber(),Kind.MethodInvoke,getTypeName(resolved.getReturnType())+" "+resolved.getDeclaringClass().getName()+"."+resolved.getName()+paramTypes);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -210,43 +250,46 @@ public class ReflLogger {
 		return type.getName();
 	}
 
-	private static StackTraceElement getInvokingFrame() {
-		StackTraceElement[] stackTrace = new Exception().getStackTrace();
-		StackTraceElement outerFrame = null;
-		int i=0;
-		for (StackTraceElement frame : stackTrace) {
-			String c = frame.getClassName();
-			if(!c.equals(ReflLogger.class.getName())
-			&& !c.equals(Class.class.getName())
-			&& !c.equals(Method.class.getName())
-			&& !c.equals(Constructor.class.getName())) {
-				outerFrame = frame;
-				break;
-			}
-			i++;
-		}
+	private static Frame getInvokingFrame() {
+		//we only materialize the frames that the report uses, but count all of them
+		StackFrames frames = new StackFrames(SKIPPED_CLASS_NAMES, Reporter.NUM_STACK_FRAMES, true);
+		StackTraceElement outerFrame = frames.element(0);
 		
-		StackTraceElement[] truncated = new StackTraceElement[stackTrace.length-i];
-		System.arraycopy(stackTrace, i, truncated, 0, stackTrace.length-i);		
-		threadLocalState.get().stackTrace = truncated;
+		int depth = frames.depth();
+		StackTraceElement[] truncated = new StackTraceElement[Math.min(depth, Reporter.NUM_STACK_FRAMES)];
+		for(int j=0; j<truncated.length; j++) {
+			truncated[j] = frames.element(j);
+		}
+		ThreadLocalState state = threadLocalState.get();
+		state.stackTrace = truncated;
+		state.stackDepth = depth;
 		
-		return outerFrame;
+		return outerFrame==null ? null : FrameResolver.frameFor(outerFrame);
 	}
 	
 	public static synchronized void closeLogger() {
 		int entriesWritten = 0;
-		int threads = 0;
-		List<Entry> allEntries = new LinkedList<Entry>();
-		for(ThreadLocalState state : perThreadStates) {
+		//entries of the same thread are written together, in the order in which they were created
+		Map<Long,List<Entry>> threadToEntries = new LinkedHashMap<Long,List<Entry>>();
+		for(Entry entry: completedEntries) {
+			addEntry(threadToEntries, entry);
+		}
+		for(ThreadLocalState state : statesInProgress) {
 			for(Entry entry: state.logEntries) {
-				if(entry.successUnknown()) entry.markAsFailed();				
+				if(entry.successUnknown()) entry.markAsFailed();
+				addEntry(threadToEntries, entry);
+			}
+		}
+		List<Entry> allEntries = new LinkedList<Entry>();
+		for(List<Entry> entries: threadToEntries.values()) {
+			for(Entry entry: entries) {
 				logger.println(entry);
 				allEntries.add(entry);
 			}
-			entriesWritten += state.logEntries.size();
-			threads++;
+			entriesWritten += entries.size();
 			logger.println();
 		}
+		int threads = threadToEntries.size();
 		
 		logger.flush();
 		logger.close();
@@ -267,6 +310,15 @@ public class ReflLogger {
 	}
 	
 
+	private static void addEntry(Map<Long,List<Entry>> threadToEntries, Entry entry) {
+		List<Entry> entries = threadToEntries.get(entry.threadId);
+		if(entries==null) {
+			entries = new ArrayList<Entry>();
+			threadToEntries.put(entry.threadId, entries);
+		}
+		entries.add(entry);
+	}
+
 	public static void setLogFile(File f) {
 		logFile = f;
 		try {
@@ -13,7 +13,7 @@ import java.util.Set;
 public class Reporter {
 	
 	private final static boolean PRINT_STACK_TRACES = false; 
-	private final static int NUM_STACK_FRAMES = 7; 
+	final static int NUM_STACK_FRAMES = 7; 
 
 	static class Data {
 		Set<String> threadIDs = new HashSet<String>();
@@ -62,7 +62,7 @@ public class Reporter {
 				callSiteToData.put(callSite, data);
 			}
 
-			data.threadIDs.add(entry.thread.getName()+"-"+entry.thread.getId());
+			data.threadIDs.add(entry.threadName+"-"+entry.threadId);
 
 			boolean successful = entry.status == Entry.Status.SUCCEEDED;
 			if(successful) data.numSuccessfulCalls++; else data.numFailedCalls++;
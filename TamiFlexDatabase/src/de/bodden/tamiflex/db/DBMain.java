@@ -10,14 +10,14 @@
  ******************************************************************************/
 package de.bodden.tamiflex.db;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.sql.SQLException;
+import java.util.List;
 
 import de.bodden.tamiflex.db.mysqlaccess.DBController;
+import de.bodden.tamiflex.logparser.LogLine;
+import de.bodden.tamiflex.logparser.LogParser;
 
 public class DBMain {
 	
@@ -27,19 +27,16 @@ public class DBMain {
 			System.exit(1);
 		}
 		String logFilePath = args[0];
-		FileInputStream fis = new FileInputStream(new File(logFilePath));
-		BufferedReader in = new BufferedReader(new InputStreamReader(fis));
-		String line;
-		while((line=in.readLine())!=null) {
-			DBController.insert(line);
-		}
+		List<LogLine> entries = LogParser.parse(new File(logFilePath), LogLine.FACTORY);
 
 		String url = System.getProperty("TFDB_URL","jdbc:mysql://127.0.0.1:3306/");
 		String username = System.getProperty("TFDB_USER","root");
 		String password = System.getProperty("TFDB_PW","");
 		
 		if(DBController.connect(true, url, username, password)) {
-			DBController.sendBuffer();
+			for (LogLine entry : entries) {
+				DBController.insert(entry);
+			}
 			DBController.closeDB();
 		} else {
 			System.err.println("Could not connect to database at "+url);
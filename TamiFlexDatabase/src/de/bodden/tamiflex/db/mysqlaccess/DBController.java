@@ -17,6 +17,8 @@ import java.sql.SQLException;
 import java.util.Vector;
 
 import de.bodden.tamiflex.db.datamodel.*;
+import de.bodden.tamiflex.logparser.LogLine;
+import de.bodden.tamiflex.logparser.LogParser;
 
 
 
@@ -127,11 +129,20 @@ public class DBController{
 			buffer.append(entry+"\n");
 		}else
 		{
-			String[] entryX=entry.split(";");
-			insertInDB(entryX[1],entryX[0],entryX[2],Integer.valueOf(entryX[3]),"thread","className",-1);
+			insert(LogParser.parseLine(entry, LogLine.FACTORY));
 		}
 	}
 	
+	/**
+	 * Inserts the given entry of a log file in the database; requires a connection.
+	 * @param entry
+	 * 					The reflective call, that is going to be inserted in the database.
+	 * @throws SQLException
+	 */
+	public static void insert(LogLine entry) throws SQLException{
+		insertInDB(entry.getTarget(),entry.getKind(),entry.getContainerMethod(),entry.getLineNumber(),"thread","className",-1);
+	}
+	
 	/**
 	 * Inserts the buffered entries in the database.
 	 * @throws NumberFormatException
@@ -141,8 +152,7 @@ public class DBController{
 		if(buffer.length()>1){
 		String[] entries =buffer.toString().split("\n");
 		for(String i:entries){
-			String[] entryX=i.split(";");
-			insertInDB(entryX[1],entryX[0],entryX[2],Integer.valueOf(entryX[3]),"thread","className",-1);
+			insert(LogParser.parseLine(i, LogLine.FACTORY));
 		}
 		}
 	}
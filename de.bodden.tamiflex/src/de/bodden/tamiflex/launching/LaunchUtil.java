@@ -131,7 +131,8 @@ public class LaunchUtil {
 					try {
 						socket = serverSocket.accept();
 						is = socket.getInputStream();
-						BufferedReader r = new BufferedReader(new InputStreamReader(is));
+						//the agent sends lines in batches; read them with a buffer large enough to hold a whole batch
+						BufferedReader r = new BufferedReader(new InputStreamReader(is), 1 << 16);
 						
 						String line = r.readLine();
 						if(line!=null) {
@@ -139,13 +140,16 @@ public class LaunchUtil {
 							File logFile = new File(line);
 							Activator.getDefault().getLogFileDatabase().registerLogFile(project, logFile);
 							
+							Runnable refresh = new Runnable() {			
+								public void run() {
+									reflView.refresh();
+								}
+							};
 							while((line=r.readLine())!=null) {
 								contentInserter.insertFromTraceFileLine(line);
-								Display.getDefault().asyncExec(new Runnable() {			
-									public void run() {
-										reflView.refresh();
-									}
-								});
+								//refresh the view once per batch, i.e., when no more buffered lines are waiting
+								if(!r.ready())
+									Display.getDefault().asyncExec(refresh);
 							}
 						}
 						
@@ -14,6 +14,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 
+import de.bodden.tamiflex.logparser.LogLine;
+import de.bodden.tamiflex.logparser.LogParser;
+
 
 public class ReflectionViewContentInserter {
 	
@@ -39,12 +42,23 @@ public class ReflectionViewContentInserter {
 	}
 
 	public void insertFromTraceFileLine(String line) {
+		if(line.length()==0) return;
+		LogLine entry;
+		try {
+			entry = LogParser.parseLine(line, LogLine.FACTORY);
+		} catch(IllegalArgumentException e) {
+			System.err.println("Failed to read line: "+line);
+			e.printStackTrace();
+			return;
+		}
+		insert(entry);
+	}
+	
+	public void insert(LogLine entry) {
 		try{
-			if(line.length()==0) return;
-			String[] portions = line.split(";");
-			String kind = portions[0];
-			String target = portions[1];
-			String source = portions[2];
+			String kind = entry.getKind();
+			String target = entry.getTarget();
+			String source = entry.getContainerMethod();
 			
 			String classNameDotMethodName = source;
 			String className= classNameDotMethodName.substring(0, classNameDotMethodName.lastIndexOf('.'));
@@ -55,10 +69,7 @@ public class ReflectionViewContentInserter {
 			}		
 			
 			String methodName= classNameDotMethodName.substring(classNameDotMethodName.lastIndexOf('.')+1);
-			int lineNumber=-1;
-			if(portions.length>3) {
-				lineNumber = Integer.parseInt(portions[3]);
-			}					
+			int lineNumber = entry.getLineNumber();
 			
 			CategoryNode categoryNode = insertNodeIfNecessary(kind);
 			TreeParent sourceMethodNode;
@@ -88,7 +99,7 @@ public class ReflectionViewContentInserter {
 				sourceMethodNode.addChild(new FieldNode(targetClassName,targetFieldName,targetType));
 			}
 		} catch(RuntimeException e) {
-			System.err.println("Failed to read line: "+line);
+			System.err.println("Failed to read line: "+entry);
 			e.printStackTrace();
 		}
 	}
@@ -15,11 +15,8 @@ package de.bodden.tamiflex.views;
 
 import static de.bodden.tamiflex.views.TreeObject.INVISIBLE_ROOT_NODE;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Set;
 
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -30,6 +27,9 @@ import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IViewSite;
 
+import de.bodden.tamiflex.logparser.LogLine;
+import de.bodden.tamiflex.logparser.LogParser;
+
 
 public class ReflectionViewContentProvider implements IStructuredContentProvider, ITreeContentProvider {
 
@@ -81,14 +81,8 @@ public class ReflectionViewContentProvider implements IStructuredContentProvider
 			INVISIBLE_ROOT_NODE.addChild(fileNode);
 			ReflectionViewContentInserter contentInserter = new ReflectionViewContentInserter(fileNode, reflectionView);
 			try {
-				InputStream inputStream = traceFilePath.toFile().toURI().toURL().openStream();
-				BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-				String line;
-				int lines = 0;
-				
-				while((line=reader.readLine())!=null) {
-					contentInserter.insertFromTraceFileLine(line);
-					lines++;
+				for (LogLine entry : LogParser.parse(traceFilePath.toFile(), LogLine.FACTORY)) {
+					contentInserter.insert(entry);
 				}
 			} catch (FileNotFoundException e) {
 				throw new RuntimeException("Trace file not found.",e);